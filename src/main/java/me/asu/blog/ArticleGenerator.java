@@ -1,27 +1,33 @@
 package me.asu.blog;
 
-import static me.asu.blog.DateUtils.parseDate;
-
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import me.asu.shell.ExitCodeException;
-import me.asu.shell.Shell;
-import me.asu.shell.ShellCommandExecutor;
 
 public class ArticleGenerator {
 
-    private Path pandoc = Paths.get("pandoc");
+    /**
+     * 传给 pandoc 的转换参数，作为渲染缓存键的一部分。
+     */
+    static final String PANDOC_OPTIONS = "-t html";
+    /**
+     * 文章页面的模板。
+     */
+    static final String TEMPLATE       = "tmpl.post";
+
+    private final PandocBackend backend;
+    private       RenderCache   renderCache;
+    private       OutputSink    outputSink = new FileOutputSink();
 
     public ArticleGenerator(String pandocPath) {
-        if (pandocPath != null && !pandocPath.isEmpty()) {
-            pandoc = Paths.get(pandocPath);
-        }
+        this(new ForkPandocBackend(pandocPath));
+    }
+
+    public ArticleGenerator(PandocBackend backend) {
+        this.backend = backend;
     }
 
     public int generate(Path input, Path output, String globalUrl)
@@ -29,189 +35,190 @@ public class ArticleGenerator {
         if (!Files.isRegularFile(input)) {
             return 1;
         }
-        Path parentPath = output.getParent();
-        if (!Files.isDirectory(parentPath)) {
-            Files.createDirectories(parentPath);
-        }
-        String[] runScriptCommand = Shell.getRunScriptCommand(pandoc.toFile());
-        Path     fileName         = input.getFileName();
-        boolean  isOrgFile        = fileName.toString().endsWith(".org");
-        //System.out.println("fileName = " + fileName);
-        //System.out.println("isOrgFile = " + isOrgFile);
-        String[] args = {"-f", isOrgFile ? "org" : "markdown", "-t", "html",
-                "-o", output.toAbsolutePath() + ".tmp",
-                input.toAbsolutePath().toString()};
-        String[] cmds = new String[runScriptCommand.length + args.length];
-        System.arraycopy(runScriptCommand, 0, cmds, 0, runScriptCommand.length);
-        System.arraycopy(args, 0, cmds, runScriptCommand.length, args.length);
+        return generate(SourceBuffer.read(input), output, globalUrl);
+    }
+
+    /**
+     * 源文件只读一次，哈希、pandoc 和元数据提取共用。
+     */
+    private int generate(SourceBuffer source, Path output, String globalUrl)
+    throws Exception {
+        Path input = source.path();
         System.out.printf("Prepare to generate files， %s => %s%n", input, output);
-        System.out.printf("Execute command： %s%n", Arrays.toString(cmds));
-        ShellCommandExecutor exec = new ShellCommandExecutor(null, null, 0, cmds);
         try {
-            exec.execute();
-            Path   tmpPath = Paths.get(output.toAbsolutePath() + ".tmp");
-            String content = new String(Files.readAllBytes(tmpPath), StandardCharsets.UTF_8);
-            SrcFileInfo info = isOrgFile ? getSrcFileInfoForOrg(input) : getSrcFileInfoForMd(input);
-            // 模板处理
-            Map<String, Object> value = new HashMap<>();
-            value.put("content", content);
-            String title = info.getTitle();
-            if (title == null || title.isEmpty()) {
-                title = fileName.toString();
-                int i = title.lastIndexOf('.');
-                title = title.substring(0, i);
-            }
-            value.put("title", title);
-            String[] fileTags = info.getFileTags();
-            if (fileTags != null && fileTags.length > 0) {
-                List<Map<String, Object>> tags = new ArrayList<>();
-                for (String fileTag : fileTags) {
-                    if (fileTag.isEmpty()) {
-                        continue;
-                    }
-                    Map<String, Object> t = new HashMap<>();
-                    t.put("tag", fileTag);
-                    t.put("tag-lowercase", fileTag.toLowerCase());
-                    tags.add(t);
+            String bodyKey = bodyKey(source);
+            String content = renderCache == null ? null : renderCache.getBody(bodyKey);
+            if (content == null) {
+                content = backend.toHtml(source, formatOf(input));
+                if (renderCache != null) {
+                    renderCache.putBody(bodyKey, content);
                 }
-                value.put("tags", tags);
-            }
-            Date articleDate = info.getArticleDate();
-            if (articleDate == null) {
-                articleDate = new Date(info.getLastModified());
             }
-            value.put("date", articleDate);
-            value.put("global_public_url", globalUrl);
-
-            content = TemplateHelper.parse("tmpl.post", value);
-            Files.write(output, content.getBytes(StandardCharsets.UTF_8));
-            Files.deleteIfExists(tmpPath);
+            render(source, output, content, bodyKey, globalUrl);
             return 0;
         } catch (ExitCodeException e) {
             int exitCode = e.getExitCode();
             System.out.println("exitCode = " + exitCode);
-            System.out.println(exec.getOutput());
             System.out.println(e.getMessage());
             return exitCode;
         }
     }
 
-    private SrcFileInfo getSrcFileInfoForOrg(Path file) throws IOException {
-        SrcFileInfo s = new SrcFileInfo();
-        s.setPath(file);
-        s.setLastModified(file.toFile().lastModified());
-        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
-
-//        不区分大小写
-//        #+TITLE:       TITLE
-//        #+DATE:        <2016-05-10 20:00>
-//        #+filetags:    linux reprint
-//        #+DESCRIPTION: DESCRIPTION
-//        #+AUTHOR:      NAME
-//        #+AUTHORWEBSITE:  LINK
-
-
-        String titleRegex = "^#\\+TITLE:\\s*(.+?)\\s*$";
-        s.setTitle(getOrgMeta(titleRegex, lines));
-
-        String dateRegex = "^#\\+DATE:\\s*\\<(.+?)\\>\\s*$";
-        String date      = getOrgMeta(dateRegex, lines);
-        Date   parse     = parseDate(date);
-        s.setArticleDate(parse);
-
-        String filetagsRegex = "^#\\+filetags:\\s*(.+?)\\s*$";
-        String filetags      = getOrgMeta(filetagsRegex, lines);
-        if (filetags != null) {
-            String[] tags = filetags.split("\\s+");
-            s.setFileTags(tags);
+    /**
+     * 批量生成同格式的文件，pandoc 后端支持时合并成一次转换，其余的逐个转换。
+     *
+     * @return 每个源文件的结果，0 表示成功，-1 表示抛出了异常
+     */
+    public Map<Path, Integer> generate(List<Path> inputs, List<Path> outputs, String globalUrl) {
+        Map<Path, Integer>  result  = new LinkedHashMap<>();
+        SourceBuffer[]      sources = new SourceBuffer[inputs.size()];
+        String[]            keys    = new String[inputs.size()];
+        String[]            bodies  = new String[inputs.size()];
+        List<SourceBuffer>  batch   = new ArrayList<>();
+        List<Integer>       indexes = new ArrayList<>();
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                sources[i] = SourceBuffer.read(inputs.get(i));
+                keys[i]    = bodyKey(sources[i]);
+                bodies[i]  = renderCache == null ? null : renderCache.getBody(keys[i]);
+                if (bodies[i] == null) {
+                    batch.add(sources[i]);
+                    indexes.add(i);
+                }
+            }
+            if (batch.size() > 1) {
+                System.out.printf("Prepare to generate %d files in one batch%n", batch.size());
+                List<String> contents = backend.toHtml(batch, formatOf(inputs.get(0)));
+                for (int k = 0; k < contents.size(); k++) {
+                    int i = indexes.get(k);
+                    bodies[i] = contents.get(k);
+                    if (bodies[i] != null && renderCache != null) {
+                        renderCache.putBody(keys[i], bodies[i]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-
-        String descRegex = "^#\\+DESCRIPTION:\\s*(.+?)\\s*$";
-        s.setDescription(getOrgMeta(descRegex, lines));
-
-        String authorRegex = "^#\\+AUTHOR:\\s*(.+?)\\s*$";
-        s.setAuthor(getOrgMeta(authorRegex, lines));
-
-        String authorWebSiteRegex = "^#\\+AUTHORWEBSITE:\\s*(.+?)\\s*$";
-        s.setAuthorWebsite(getOrgMeta(authorWebSiteRegex, lines));
-        return s;
+        for (int i = 0; i < inputs.size(); i++) {
+            Path input  = inputs.get(i);
+            Path output = outputs.get(i);
+            try {
+                if (sources[i] == null) {
+                    result.put(input, generate(input, output, globalUrl));
+                } else if (bodies[i] == null) {
+                    result.put(input, generate(sources[i], output, globalUrl));
+                } else {
+                    render(sources[i], output, bodies[i], keys[i], globalUrl);
+                    result.put(input, 0);
+                }
+            } catch (Exception e) {
+                System.err.printf("Failed to generate %s%n", input);
+                e.printStackTrace();
+                result.put(input, -1);
+            }
+        }
+        return result;
     }
 
-    private SrcFileInfo getSrcFileInfoForMd(Path file) throws IOException {
-        SrcFileInfo s = new SrcFileInfo();
-        s.setPath(file);
-        s.setLastModified(file.toFile().lastModified());
+    public int getBatchSize() {
+        return backend.batchSize();
+    }
 
-        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    public long getBatchMaxBytes() {
+        return backend.batchMaxBytes();
+    }
 
-        String titleRegex = "^\\s*TITLE:\\s*(.+?)\\s*$";
-        s.setTitle(getMdMeta(titleRegex, lines));
+    public String getPandocVersion() {
+        return backend.version();
+    }
 
-        String dateRegex = "^\\s*DATE:\\s*\\<(.+?)\\>\\s*$";
-        String date      = getMdMeta(dateRegex, lines);
-        Date   parse     = parseDate(date);
-        s.setArticleDate(parse);
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
 
-        String filetagsRegex = "^\\s*filetags:\\s*(.+?)\\s*$";
-        String filetags      = getMdMeta(filetagsRegex, lines);
-        if (filetags != null) {
-            String[] tags = filetags.split("\\s+");
-            s.setFileTags(tags);
-        }
+    public void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
 
-        String descRegex = "^\\s*DESCRIPTION:\\s*(.+?)\\s*$";
-        s.setDescription(getMdMeta(descRegex, lines));
+    public OutputSink getOutputSink() {
+        return outputSink;
+    }
 
-        String authorRegex = "^\\s*AUTHOR:\\s*(.+?)\\s*$";
-        s.setAuthor(getMdMeta(authorRegex, lines));
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
 
-        String authorWebSiteRegex = "^\\s*AUTHORWEBSITE:\\s*(.+?)\\s*$";
-        s.setAuthorWebsite(getMdMeta(authorWebSiteRegex, lines));
-        return s;
+    static String formatOf(Path input) {
+        return input.getFileName().toString().endsWith(".org") ? "org" : "markdown";
     }
 
-    private String getOrgMeta(String regex, List<String> lines) {
-        String  value   = "";
-        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-        for (int i = 0; i < lines.size(); i++) {
-            String  line = lines.get(i);
-            Matcher m    = pattern.matcher(line);
-            if (m.matches()) {
-                value = m.group(1);
+    private String bodyKey(SourceBuffer source) {
+        if (renderCache == null) {
+            return "";
+        }
+        return RenderCache.bodyKey(source.md5(), formatOf(source.path()), backend.version(),
+                PANDOC_OPTIONS);
+    }
 
-                break;
-            }
+    private void render(SourceBuffer source, Path output, String content, String bodyKey,
+            String globalUrl) throws Exception {
+        Path        input    = source.path();
+        Path        fileName = input.getFileName();
+        SrcFileInfo info     = MetaExtractor.of(input).extract(input, source, StandardCharsets.UTF_8);
+        // 模板处理
+        Map<String, Object> value = new HashMap<>();
+        value.put("content", content);
+        String title = info.getTitle();
+        if (title == null || title.isEmpty()) {
+            title = fileName.toString();
+            int i = title.lastIndexOf('.');
+            title = title.substring(0, i);
         }
-        return value;
-    }
-
-    private String getMdMeta(String regex, List<String> lines) {
-                /* \\[
-                [comment]: <> (This is a comment, it will not be included)
-                [comment]: <> (in  the output file unless you use it in)
-                [comment]: <> (a reference style link.)
-                [//]: <> (This is also a comment.)
-                [//]: # (This may be the most platform independent comment)
-                [//]: # A
-                 */
-
-        String  commentRegex   = "^\\[(?:comment|//)\\]:\\s*(?:<>|#)\\s*\\(?(.+?)\\)?\\s*$";
-        Pattern commentPattern = Pattern.compile(commentRegex, Pattern.CASE_INSENSITIVE);
-
-        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-
-        for (String str : lines) {
-            Matcher m = commentPattern.matcher(str);
-            if (m.matches()) {
-                String  comment = m.group(1);
-                Matcher m2      = pattern.matcher(comment);
-                if (m2.matches()) {
-                    return m2.group(1);
+        value.put("title", title);
+        StringBuilder metadata = new StringBuilder(title);
+        String[]      fileTags = info.getFileTags();
+        if (fileTags != null && fileTags.length > 0) {
+            List<Map<String, Object>> tags = new ArrayList<>();
+            for (String fileTag : fileTags) {
+                if (fileTag.isEmpty()) {
+                    continue;
                 }
+                Map<String, Object> t = new HashMap<>();
+                t.put("tag", fileTag);
+                t.put("tag-lowercase", fileTag.toLowerCase());
+                tags.add(t);
+                metadata.append('\0').append(fileTag);
             }
+            value.put("tags", tags);
         }
+        Date articleDate = info.getArticleDate();
+        if (articleDate == null) {
+            articleDate = new Date(info.getLastModified());
+        }
+        value.put("date", articleDate);
+        value.put("global_public_url", globalUrl);
+        metadata.append('\0').append(articleDate.getTime()).append('\0').append(globalUrl);
+
+        String pageKey = null;
+        content = null;
+        if (renderCache != null) {
+            pageKey = RenderCache.pageKey(bodyKey, metadata.toString(), TemplateHelper.templateHash());
+            renderCache.use(output, bodyKey, pageKey);
+            content = renderCache.getPage(pageKey);
+        }
+        if (content != null) {
+            outputSink.write(output, content, StandardCharsets.UTF_8);
+            return;
+        }
+        content = TemplateHelper.render(TEMPLATE, value, outputSink, output, StandardCharsets.UTF_8);
+        if (renderCache != null) {
+            renderCache.putPage(pageKey, content);
+        }
+    }
 
-        return "";
+    public void close() {
+        backend.close();
     }
 
 }
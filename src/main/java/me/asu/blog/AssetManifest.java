@@ -0,0 +1,120 @@
+package me.asu.blog;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已复制的静态资源清单：每个目标文件记录源文件、两边的大小和修改时间，以及内容的 XXH64。
+ *
+ * <p>源文件和目标文件的大小、修改时间都和记录一致时不读内容；只有修改时间变了（git checkout、touch）
+ * 时流式计算一次哈希，内容没变就只更新记录。
+ *
+ * @author suk
+ */
+public class AssetManifest {
+
+    private static final int MAGIC          = 0x41534153; // ASAS
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path               file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * @param file 保存位置，为 null 时只在内存中
+     */
+    public AssetManifest(Path file) {
+        this.file = file;
+    }
+
+    public static AssetManifest load(Path file) {
+        AssetManifest manifest = new AssetManifest(file);
+        if (file == null || !Files.isRegularFile(file)) {
+            return manifest;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.out.printf("Asset manifest %s is outdated, IGNORED.%n", file);
+                return manifest;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String dest = in.readUTF();
+                Entry  e    = new Entry();
+                e.source    = in.readUTF();
+                e.srcSize   = in.readLong();
+                e.srcMtime  = in.readLong();
+                e.destSize  = in.readLong();
+                e.destMtime = in.readLong();
+                e.hash      = in.readLong();
+                manifest.entries.put(dest, e);
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not load asset manifest %s: %s%n", file, e);
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    public Entry get(Path dest) {
+        return entries.get(key(dest));
+    }
+
+    public void put(Path dest, Entry entry) {
+        entries.put(key(dest), entry);
+        dirty = true;
+    }
+
+    public void remove(Path dest) {
+        if (entries.remove(key(dest)) != null) {
+            dirty = true;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void save() throws IOException {
+        if (!dirty || file == null) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                out.writeUTF(me.getKey());
+                out.writeUTF(e.source);
+                out.writeLong(e.srcSize);
+                out.writeLong(e.srcMtime);
+                out.writeLong(e.destSize);
+                out.writeLong(e.destMtime);
+                out.writeLong(e.hash);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    static String key(Path p) {
+        return p.toAbsolutePath().normalize().toString();
+    }
+
+    public static class Entry {
+
+        String source;
+        long   srcSize;
+        long   srcMtime;
+        long   destSize;
+        long   destMtime;
+        long   hash;
+    }
+}
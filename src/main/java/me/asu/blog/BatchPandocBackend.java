@@ -0,0 +1,175 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 把多个小文件拼成一个文档，只启动一次 pandoc，再按分隔标记拆开结果。
+ *
+ * <p>全局生效的内容（脚注、{@code #+OPTIONS}、{@code #+INCLUDE}、markdown 引用链接等）
+ * 不适合拼接，这些文件以及拆分结果可疑的文件都返回 null，由调用方单独转换。
+ *
+ * @author suk
+ */
+public class BatchPandocBackend implements PandocBackend {
+
+    /**
+     * 拼接后会影响其它文件或被其它文件影响的写法
+     */
+    private static final Pattern ORG_NOT_BATCHABLE = Pattern.compile(
+            "^#\\+(?:INCLUDE|SETUPFILE|OPTIONS|MACRO|LINK|BIND):|\\[fn:",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+    private static final Pattern MD_NOT_BATCHABLE  = Pattern.compile(
+            "\\[\\^|^ {0,3}\\[(?!comment\\]|//\\])[^\\]]+\\]:",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+    private static final Pattern ID_PATTERN        = Pattern.compile("\\sid=\"([^\"]+)\"");
+    private static final Pattern DEDUP_ID_PATTERN  = Pattern.compile("(.+)-\\d+");
+
+    private final PandocBackend single;
+    private final int           batchSize;
+    private final long          batchMaxBytes;
+
+    public BatchPandocBackend(PandocBackend single, int batchSize, long batchMaxBytes) {
+        this.single        = single;
+        this.batchSize     = batchSize;
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    @Override
+    public String version() {
+        return single.version();
+    }
+
+    @Override
+    public String toHtml(SourceBuffer source, String from) throws IOException {
+        return single.toHtml(source, from);
+    }
+
+    @Override
+    public List<String> toHtml(List<SourceBuffer> inputs, String from) throws IOException {
+        String[] result = new String[inputs.size()];
+        boolean  isOrg  = "org".equals(from);
+        String   token  = UUID.randomUUID().toString();
+
+        List<Integer> batched  = new ArrayList<>();
+        StringBuilder combined = new StringBuilder();
+        for (int i = 0; i < inputs.size(); i++) {
+            String text = inputs.get(i).text(StandardCharsets.UTF_8);
+            if ((isOrg ? ORG_NOT_BATCHABLE : MD_NOT_BATCHABLE).matcher(text).find()) {
+                continue;
+            }
+            String marker = marker(token, batched.size());
+            if (isOrg) {
+                combined.append("\n#+BEGIN_EXPORT html\n").append(marker).append("\n#+END_EXPORT\n");
+            } else {
+                combined.append("\n\n").append(marker).append("\n\n");
+            }
+            combined.append(text).append('\n');
+            batched.add(i);
+        }
+        if (batched.size() < 2) {
+            return Arrays.asList(result);
+        }
+
+        // 拼接的内容直接从 stdin 传给 pandoc，不落盘
+        SourceBuffer batch = SourceBuffer.wrap(inputs.get(batched.get(0)).path(),
+                combined.toString().getBytes(StandardCharsets.UTF_8));
+        String html;
+        try {
+            html = single.toHtml(batch, from);
+        } catch (IOException e) {
+            System.err.printf("Batch conversion of %d files failed, convert them one by one: %s%n",
+                    batched.size(), e.getMessage());
+            return Arrays.asList(result);
+        }
+
+        List<String> parts = split(html, token, batched.size());
+        if (parts == null) {
+            System.err.printf("Batch output of %d files can not be split, convert them one by one.%n",
+                    batched.size());
+            return Arrays.asList(result);
+        }
+        Set<String> seenIds = new HashSet<>();
+        for (int k = 0; k < parts.size(); k++) {
+            String       part  = parts.get(k);
+            SourceBuffer input = inputs.get(batched.get(k));
+            if (looksWrong(part, input, seenIds)) {
+                System.out.printf("Batch output of %s looks wrong, convert it alone.%n", input.path());
+                continue;
+            }
+            result[batched.get(k)] = part;
+        }
+        return Arrays.asList(result);
+    }
+
+    @Override
+    public int batchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public long batchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    @Override
+    public void close() {
+        single.close();
+    }
+
+    static String marker(String token, int index) {
+        return "<!-- asu-batch:" + token + ":" + index + " -->";
+    }
+
+    /**
+     * 按标记拆分，标记必须按顺序全部出现，否则返回 null。
+     */
+    static List<String> split(String html, String token, int count) {
+        List<String> parts = new ArrayList<>(count);
+        int          start = html.indexOf(marker(token, 0));
+        if (start < 0 || !html.substring(0, start).trim().isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            String marker = marker(token, i);
+            int    begin  = start + marker.length();
+            int    end    = i + 1 < count ? html.indexOf(marker(token, i + 1), begin) : html.length();
+            if (end < 0) {
+                return null;
+            }
+            String part = html.substring(begin, end).trim();
+            if (part.contains("<!-- asu-batch:" + token)) {
+                return null;
+            }
+            parts.add(part.isEmpty() ? part : part + "\n");
+            start = end;
+        }
+        return parts;
+    }
+
+    /**
+     * 单独转换非空的文件不会得到空结果；pandoc 会给重复的标题 id 加 -1、-2 后缀，
+     * 后缀对应的 id 出现在前面的文件中，说明受了拼接影响。
+     */
+    private boolean looksWrong(String part, SourceBuffer input, Set<String> seenIds) {
+        if (part.isEmpty() && input.size() > 0) {
+            return true;
+        }
+        boolean     wrong = false;
+        Set<String> ids   = new HashSet<>();
+        Matcher     m     = ID_PATTERN.matcher(part);
+        while (m.find()) {
+            String  id    = m.group(1);
+            Matcher dedup = DEDUP_ID_PATTERN.matcher(id);
+            if (dedup.matches() && seenIds.contains(dedup.group(1))) {
+                wrong = true;
+            }
+            ids.add(id);
+        }
+        seenIds.addAll(ids);
+        return wrong;
+    }
+}
@@ -11,9 +11,69 @@ public class BlogContext {
     String home;
     String baseOutputPath;
     String pandocPath;
+    Path   templatesDir;
+    /**
+     * 并发转换的线程数，小于等于 0 时使用可用的 CPU 数。
+     */
+    int    convertThreads;
+    /**
+     * pandoc 后端：fork 每个文件启动一个进程，batch 把小文件合并转换，server 使用常驻的
+     * pandoc-server。
+     */
+    String pandocMode = "fork";
+    /**
+     * batch 模式下每批合并的文件数，以及参与合并的文件大小上限（字节）。
+     */
+    int    pandocBatchSize     = 50;
+    long   pandocBatchMaxBytes = 4096;
+    /**
+     * pandoc-server 进程数，小于等于 0 时使用可用的 CPU 数。
+     */
+    int    pandocWorkers;
+    /**
+     * 单个文件转换的超时（毫秒），0 表示不限制；超时和启动失败的重试次数、第一次重试前的等待毫秒数；
+     * 转换时间超过最近的 p99 时是否再启动一个相同的转换。
+     */
+    long    pandocTimeout      = 60000;
+    int     pandocRetries      = 1;
+    long    pandocRetryBackoff = 500;
+    boolean pandocHedge;
 
     Path src;
     Path assets;
+    /**
+     * 静态资源的复制方式：copy 复制；link 创建硬链接，要求和输出目录在同一个文件系统。
+     */
+    String assetCopyMode = "copy";
+    /**
+     * 遍历源文件目录，各栏目和静态资源共用。
+     */
+    SourceScanner scanner = new SourceScanner();
+    /**
+     * 每次遍历都重新列出所有目录，不复用修改时间没变的目录的记录。
+     */
+    boolean       scanVerify;
+    /**
+     * 构建缓存目录，为 null 时不使用缓存。
+     */
+    Path cacheDir;
+    /**
+     * 每次构建后写出输出目录变化列表的文件，为 null 时不写。
+     */
+    Path deltaFile;
+    /**
+     * 生成结果的去处，预览模式下替换为内存。
+     */
+    OutputSink outputSink = new FileOutputSink();
+    /**
+     * --preview 模式：输出保存在内存中，由预览服务器提供，不复制静态资源。
+     */
+    boolean    preview;
+    int        previewPort = 8000;
+    /**
+     * --watch 模式下最后一个变化之后等待的毫秒数，期间的变化合并成一次构建。
+     */
+    long watchDebounce = 300;
 
     Path   postSrc;
     Path   postTarget;
@@ -0,0 +1,153 @@
+package me.asu.blog;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按依赖关系并发执行构建阶段。
+ *
+ * <p>每个阶段在所有依赖完成后开始，互不依赖的阶段同时执行，整次构建的耗时是最长的一条依赖链。
+ * 阶段只负责协调，转换等重活仍然提交到共享的转换线程池，所以阶段线程不占用转换线程。
+ * 一个阶段失败只跳过依赖它的阶段，其它阶段照常执行。
+ *
+ * @author suk
+ */
+public class BuildScheduler {
+
+    public interface Task {
+
+        void run() throws Exception;
+    }
+
+    public enum Status {
+        OK, FAILED, SKIPPED
+    }
+
+    public static class Result {
+
+        final String    stage;
+        final Status    status;
+        final long      millis;
+        final Throwable error;
+
+        Result(String stage, Status status, long millis, Throwable error) {
+            this.stage  = stage;
+            this.status = status;
+            this.millis = millis;
+            this.error  = error;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    private static class Stage {
+
+        final String   name;
+        final Task     task;
+        final String[] dependsOn;
+
+        Stage(String name, Task task, String[] dependsOn) {
+            this.name      = name;
+            this.task      = task;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    /**
+     * 声明一个阶段，依赖的阶段必须先声明，因此不会出现环。
+     */
+    public BuildScheduler stage(String name, Task task, String... dependsOn) {
+        if (stages.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicated stage: " + name);
+        }
+        for (String d : dependsOn) {
+            if (!stages.containsKey(d)) {
+                throw new IllegalArgumentException("Stage " + name + " depends on unknown stage " + d);
+            }
+        }
+        stages.put(name, new Stage(name, task, dependsOn));
+        return this;
+    }
+
+    /**
+     * 执行所有阶段，等待全部结束。
+     *
+     * @return 每个阶段的结果，按声明顺序
+     */
+    public List<Result> run() throws InterruptedException {
+        AtomicInteger   seq      = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "build-stage-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            // 阶段线程读取依赖的 future 时这里还在添加
+            Map<String, CompletableFuture<Result>> futures = new ConcurrentHashMap<>();
+            for (Stage stage : stages.values()) {
+                CompletableFuture<?>[] deps = new CompletableFuture<?>[stage.dependsOn.length];
+                for (int i = 0; i < deps.length; i++) {
+                    deps[i] = futures.get(stage.dependsOn[i]);
+                }
+                // 依赖的 future 总是正常完成，结果里记录成败
+                futures.put(stage.name, CompletableFuture.allOf(deps)
+                        .thenApplyAsync(v -> execute(stage, futures), executor));
+            }
+            List<Result> results = new ArrayList<>();
+            for (String name : stages.keySet()) {
+                try {
+                    results.add(futures.get(name).get());
+                } catch (ExecutionException e) {
+                    // execute() 不抛出异常
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result execute(Stage stage, Map<String, CompletableFuture<Result>> futures) {
+        for (String d : stage.dependsOn) {
+            Result r = futures.get(d).join();
+            if (r.status != Status.OK) {
+                System.err.printf("Stage %s SKIPPED: %s %s.%n", stage.name, d,
+                        r.status == Status.FAILED ? "failed" : "was skipped");
+                return new Result(stage.name, Status.SKIPPED, 0, null);
+            }
+        }
+        long start = System.currentTimeMillis();
+        try {
+            stage.task.run();
+            long millis = System.currentTimeMillis() - start;
+            System.out.printf("Stage %s finished in %d ms.%n", stage.name, millis);
+            return new Result(stage.name, Status.OK, millis, null);
+        } catch (Throwable e) {
+            System.err.printf("Stage %s FAILED:%n", stage.name);
+            e.printStackTrace();
+            return new Result(stage.name, Status.FAILED, System.currentTimeMillis() - start, e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 转换超时，pandoc 进程已被结束。
+ *
+ * @author suk
+ */
+public class ConversionTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Path 不能序列化，保存字符串
+     */
+    private final String source;
+
+    public ConversionTimeoutException(Path source, long timeoutMillis) {
+        super(source + ": conversion timed out after " + timeoutMillis + " ms");
+        this.source = source.toString();
+    }
+
+    public Path getSource() {
+        return Paths.get(source);
+    }
+}
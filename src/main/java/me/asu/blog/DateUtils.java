@@ -6,22 +6,37 @@ import java.util.Date;
 
 public class DateUtils {
 
+    /**
+     * 可能出现的时间格式
+     */
+    private static final String[] PATTERNS = {"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
+            "yyyy-MM-dd'T'HH:mm:ss'Z'", "yyyy-MM-dd HH:mm:ss.SSS",
+            "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm",
+            "yyyy/MM/dd HH:mm:ss", "yyyy/MM/dd HH:mm", "yyyy年MM月dd日",
+            "yyyy-MM-dd", "yyyy/MM/dd", "yyyyMMdd"};
+
+    /**
+     * SimpleDateFormat 不是线程安全的，每个线程一组，不用每次解析都重新创建。
+     */
+    private static final ThreadLocal<SimpleDateFormat[]> FORMATS = ThreadLocal.withInitial(() -> {
+        SimpleDateFormat[] formats = new SimpleDateFormat[PATTERNS.length];
+        for (int i = 0; i < PATTERNS.length; i++) {
+            formats[i] = new SimpleDateFormat(PATTERNS[i]);
+            //设置解析日期格式是否严格解析日期
+            formats[i].setLenient(false);
+        }
+        return formats;
+    });
+
     /**
      * @param inputDate 要解析的字符串
      * @return 解析出来的日期，如果没有匹配的返回null
      */
     public static Date parseDate(String inputDate) {
-        //可能出现的时间格式
-        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
-                "yyyy-MM-dd'T'HH:mm:ss'Z'", "yyyy-MM-dd HH:mm:ss.SSS",
-                "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm",
-                "yyyy/MM/dd HH:mm:ss", "yyyy/MM/dd HH:mm", "yyyy年MM月dd日",
-                "yyyy-MM-dd", "yyyy/MM/dd", "yyyyMMdd"};
-        SimpleDateFormat df = new SimpleDateFormat();
-        for (String pattern : patterns) {
-            df.applyPattern(pattern);
-            //设置解析日期格式是否严格解析日期
-            df.setLenient(false);
+        if (inputDate == null || inputDate.isEmpty()) {
+            return null;
+        }
+        for (SimpleDateFormat df : FORMATS.get()) {
             ParsePosition pos  = new ParsePosition(0);
             Date          date = df.parse(inputDate, pos);
             if (date != null) {
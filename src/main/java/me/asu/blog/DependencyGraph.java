@@ -0,0 +1,292 @@
+package me.asu.blog;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 记录每个输出页面依赖的源文件、include 文件、模板和配置项，下次构建据此判断哪些页面需要重新生成。
+ *
+ * <p>文件依赖记录大小、修改时间和 md5，大小和修改时间没变视为没变；变了再比较 md5，
+ * git checkout 只重置修改时间时不会重新生成。不存在的依赖记为大小 -1，出现后会触发重新生成。
+ *
+ * @author suk
+ */
+public class DependencyGraph {
+
+    private static final int MAGIC          = 0x41534447; // ASDG
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Pattern ORG_INCLUDE = Pattern.compile(
+            "^[ \\t]*#\\+(?:INCLUDE|SETUPFILE):[ \\t]*(?:\"([^\"]+)\"|(\\S+))",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    private final Path              file;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    /**
+     * 本次构建中文件的当前状态，同一个文件（例如模板）只 stat、哈希一次。
+     */
+    private final Map<String, FileDep> current = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    public DependencyGraph(Path file) {
+        this.file = file;
+    }
+
+    public static DependencyGraph load(Path file) {
+        DependencyGraph graph = new DependencyGraph(file);
+        if (!Files.isRegularFile(file)) {
+            return graph;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.out.printf("Dependency graph %s is outdated, IGNORED.%n", file);
+                return graph;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Node n = Node.read(in);
+                graph.nodes.put(n.output, n);
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not load dependency graph %s: %s%n", file, e);
+            graph.nodes.clear();
+        }
+        return graph;
+    }
+
+    /**
+     * @param config 影响输出的配置项，例如 baseUrl
+     * @return 需要重新生成的原因，不需要时返回 null
+     */
+    public String staleReason(Path output, Map<String, String> config) {
+        if (!Files.isRegularFile(output)) {
+            return "output is missing";
+        }
+        Node n = nodes.get(key(output));
+        if (n == null) {
+            return "no dependency record";
+        }
+        if (!n.config.equals(config)) {
+            return "config changed";
+        }
+        for (FileDep old : n.files) {
+            FileDep now = current(Paths.get(old.path));
+            if (old.size != now.size) {
+                return old.path + " changed";
+            }
+            if (old.size < 0 || old.mtime == now.mtime) {
+                continue;
+            }
+            if (!Arrays.equals(old.hash(), now.hash())) {
+                return old.path + " changed";
+            }
+            old.mtime = now.mtime;
+            dirty     = true;
+        }
+        return null;
+    }
+
+    /**
+     * 生成成功后记录依赖：源文件、递归展开的 include 文件、模板文件和配置项。
+     */
+    public void record(Path output, Path source, Collection<Path> templates, Map<String, String> config) {
+        Node n = new Node();
+        n.output = key(output);
+        n.source = key(source);
+        n.config = new TreeMap<>(config);
+        Set<Path> deps = new LinkedHashSet<>();
+        deps.add(source);
+        collectIncludes(source, deps);
+        deps.addAll(templates);
+        for (Path p : deps) {
+            n.files.add(current(p).copy());
+        }
+        nodes.put(n.output, n);
+        dirty = true;
+    }
+
+    /**
+     * 源文件已删除的输出，只查 outDir 下由 srcDir 生成的页面。
+     */
+    public List<Path> orphans(Path srcDir, Path outDir) {
+        String       src    = key(srcDir) + File.separator;
+        String       out    = key(outDir) + File.separator;
+        List<Path>   result = new ArrayList<>();
+        for (Node n : nodes.values()) {
+            if (n.output.startsWith(out) && n.source.startsWith(src)
+                    && !Files.exists(Paths.get(n.source))) {
+                result.add(Paths.get(n.output));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 丢弃记住的文件状态，watch 模式每次重新构建前调用。
+     */
+    public void refresh() {
+        current.clear();
+    }
+
+    public void remove(Path output) {
+        if (nodes.remove(key(output)) != null) {
+            dirty = true;
+        }
+    }
+
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(nodes.size());
+            for (Node n : nodes.values()) {
+                n.write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    /**
+     * org 文件中 {@code #+INCLUDE} 和 {@code #+SETUPFILE} 引用的文件，相对路径按所在文件的目录解析。
+     */
+    static void collectIncludes(Path source, Set<Path> deps) {
+        String name = source.getFileName().toString();
+        if (!name.endsWith(".org") && !name.endsWith(".setup") || !Files.isRegularFile(source)) {
+            return;
+        }
+        String text;
+        try {
+            text = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return;
+        }
+        Matcher m = ORG_INCLUDE.matcher(text);
+        while (m.find()) {
+            String ref = m.group(1) != null ? m.group(1) : m.group(2);
+            Path   p;
+            try {
+                p = source.toAbsolutePath().getParent().resolve(ref).normalize();
+            } catch (InvalidPathException e) {
+                continue;
+            }
+            if (deps.add(p)) {
+                collectIncludes(p, deps);
+            }
+        }
+    }
+
+    private FileDep current(Path p) {
+        return current.computeIfAbsent(key(p), k -> {
+            FileDep d = new FileDep();
+            d.path = k;
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                d.size  = attrs.size();
+                d.mtime = attrs.lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                d.size = -1;
+            }
+            return d;
+        });
+    }
+
+    private static String key(Path p) {
+        return p.toAbsolutePath().normalize().toString();
+    }
+
+    static class Node {
+
+        String              output;
+        String              source;
+        Map<String, String> config = new TreeMap<>();
+        List<FileDep>       files  = new ArrayList<>();
+
+        static Node read(DataInputStream in) throws IOException {
+            Node n = new Node();
+            n.output = in.readUTF();
+            n.source = in.readUTF();
+            int c = in.readInt();
+            for (int i = 0; i < c; i++) {
+                n.config.put(in.readUTF(), in.readUTF());
+            }
+            int f = in.readInt();
+            for (int i = 0; i < f; i++) {
+                FileDep d = new FileDep();
+                d.path  = in.readUTF();
+                d.size  = in.readLong();
+                d.mtime = in.readLong();
+                d.hash  = new byte[in.readUnsignedByte()];
+                in.readFully(d.hash);
+                n.files.add(d);
+            }
+            return n;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(output);
+            out.writeUTF(source);
+            out.writeInt(config.size());
+            for (Map.Entry<String, String> e : config.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue() == null ? "" : e.getValue());
+            }
+            out.writeInt(files.size());
+            for (FileDep d : files) {
+                byte[] hash = d.hash();
+                out.writeUTF(d.path);
+                out.writeLong(d.size);
+                out.writeLong(d.mtime);
+                out.writeByte(hash.length);
+                out.write(hash);
+            }
+        }
+    }
+
+    static class FileDep {
+
+        String path;
+        long   size;
+        long   mtime;
+        byte[] hash;
+
+        /**
+         * 用到时才计算，大小和修改时间没变的文件不读内容。
+         */
+        synchronized byte[] hash() {
+            if (hash == null) {
+                try {
+                    hash = size < 0 ? new byte[0] : Hashes.md5(Files.readAllBytes(Paths.get(path)));
+                } catch (IOException e) {
+                    hash = new byte[0];
+                }
+            }
+            return hash;
+        }
+
+        /**
+         * 记录用的副本，记录时需要哈希
+         */
+        FileDep copy() {
+            FileDep d = new FileDep();
+            d.path  = path;
+            d.size  = size;
+            d.mtime = mtime;
+            d.hash  = hash();
+            return d;
+        }
+    }
+}
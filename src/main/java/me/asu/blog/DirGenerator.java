@@ -4,7 +4,12 @@ import static me.asu.blog.ResourcesCopier.diff;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
 
 /**
  * @author suk
@@ -12,59 +17,226 @@ import java.nio.file.attribute.BasicFileAttributes;
 public class DirGenerator {
 
     ArticleGenerator generator;
+    /**
+     * 转换用的线程池，为 null 时在当前线程中逐个转换。
+     */
+    ExecutorService  executor;
+    /**
+     * 依赖记录，为 null 时按修改时间判断是否需要重新生成。
+     */
+    DependencyGraph  dependencies;
+    /**
+     * 静态资源计划，非 null 时其它文件只登记到计划中，由 copyRes 统一复制；
+     * 为 null 时（预览模式）直接通过输出目标复制。
+     */
+    StaticAssetPlan  assetPlan;
+    /**
+     * 本次构建的输出清单，为 null 时不登记。
+     */
+    OutputManifest   outputs;
+    /**
+     * 删除源文件已删除的页面，为 null 时只通过输出目标删除并更新依赖记录。
+     */
+    OrphanRemover    orphanRemover;
+    SourceScanner    scanner = new SourceScanner();
+    /**
+     * 没有依赖记录且写到磁盘时，内容已确认相同的页面
+     */
+    VerifiedPages    verifiedPages;
 
     public DirGenerator(ArticleGenerator generator) {
+        this(generator, null);
+    }
+
+    public DirGenerator(ArticleGenerator generator, ExecutorService executor) {
         this.generator = generator;
+        this.executor  = executor;
+    }
+
+    public void setDependencies(DependencyGraph dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    public void setAssetPlan(StaticAssetPlan assetPlan) {
+        this.assetPlan = assetPlan;
+    }
+
+    public void setOutputs(OutputManifest outputs) {
+        this.outputs = outputs;
+    }
+
+    public void setOrphanRemover(OrphanRemover orphanRemover) {
+        this.orphanRemover = orphanRemover;
+    }
+
+    public void setScanner(SourceScanner scanner) {
+        this.scanner = scanner;
     }
 
     public void generate(Path inputDir, Path outDir, String globalUrl)
     throws Exception {
         if (!Files.isDirectory(inputDir)) return;
 
-        if (!Files.isDirectory(outDir)) {
-            Files.createDirectories(outDir);
-        }
+        OutputSink sink = generator.getOutputSink();
+        verifiedPages = dependencies == null && sink instanceof FileOutputSink
+                ? VerifiedPages.load(outDir) : null;
 
-        Files.walkFileTree(inputDir, new SimpleFileVisitor<Path>() {
-
-            @Override
-            public FileVisitResult visitFile(Path file,
-                    BasicFileAttributes attrs) throws IOException {
-                try {
-                    if (file.toString().endsWith(".org")) {
-                        String s = file.getFileName().toString();
-                        s = s.substring(0, s.length() - 3);
-                        Path dest = getDestPath(file, s, "html", inputDir, outDir);
-                        if (!checkModified(file, dest)) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                        generator.generate(file, dest, globalUrl);
-                    } else if (file.toString().endsWith(".md")) {
-                        String s = file.getFileName().toString();
-                        s = s.substring(0, s.length() - 2);
-                        Path dest = getDestPath(file, s, "html", inputDir, outDir);
-                        if (!checkModified(file, dest)) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                        generator.generate(file, dest, globalUrl);
-                    } else {
-                        // just copy as assets resource
-                        Path dest = getDestPath(file, file.getFileName()
-                                                          .toString(), "", inputDir, outDir);
-                        if (!diff(file, dest)) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                        Files.copy(file, dest, StandardCopyOption.REPLACE_EXISTING);
+        Map<String, String> config    = config(globalUrl);
+        List<Path>          templates = TemplateHelper.templateFiles();
+        Map<Path, Path>     destOf    = new HashMap<>();
+        // 遍历只负责入队，转换交给线程池并发执行。
+        Map<FutureTask<Map<Path, Integer>>, List<Path>> tasks = new LinkedHashMap<>();
+        // 待合并转换的小文件，按格式分组
+        Map<String, List<Path[]>> pending = new HashMap<>();
+        int  batchSize     = generator.getBatchSize();
+        long batchMaxBytes = generator.getBatchMaxBytes();
+        for (SourceScanner.Entry entry : scanner.scan(inputDir)) {
+            Path file = entry.getPath();
+            try {
+                if (entry.getKind().isMarkup()) {
+                    String s = file.getFileName().toString();
+                    s = s.substring(0, s.lastIndexOf('.') + 1);
+                    Path dest = getDestPath(file, s, "html", inputDir, outDir);
+                    produced(dest);
+                    if (!checkModified(file, dest, config)) {
+                        continue;
+                    }
+                    destOf.put(file, dest);
+                    if (batchSize <= 1 || entry.getAttrs().size() > batchMaxBytes) {
+                        submit(tasks, Collections.singletonList(file), () -> Collections
+                                .singletonMap(file, generator.generate(file, dest, globalUrl)));
+                        continue;
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    String       format = ArticleGenerator.formatOf(file);
+                    List<Path[]> batch  = pending.computeIfAbsent(format, k -> new ArrayList<>());
+                    batch.add(new Path[]{file, dest});
+                    if (batch.size() >= batchSize) {
+                        submitBatch(tasks, batch, globalUrl);
+                        pending.remove(format);
+                    }
+                } else {
+                    // just copy as assets resource
+                    Path dest = getDestPath(file, file.getFileName()
+                                                      .toString(), "", inputDir, outDir);
+                    if (assetPlan != null) {
+                        assetPlan.add(file, dest);
+                        continue;
+                    }
+                    if (!diff(file, dest)) {
+                        continue;
+                    }
+                    sink.copy(file, dest);
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        pending.values().forEach(batch -> submitBatch(tasks, batch, globalUrl));
+        if (assetPlan != null) {
+            assetPlan.cover(inputDir, outDir);
+        }
 
-                return FileVisitResult.CONTINUE;
+        awaitAll(inputDir, tasks, (file, exitCode) -> {
+            if (exitCode != 0) {
+                return;
+            }
+            if (dependencies != null) {
+                dependencies.record(destOf.get(file), file, templates, config);
+            } else {
+                verified(file, destOf.get(file));
             }
+        });
+        if (dependencies != null) {
+            removeOrphans(inputDir, outDir);
+        }
+        if (verifiedPages != null) {
+            verifiedPages.save();
+        }
+    }
 
+    /**
+     * 源文件还在的页面都算本次的输出，没有重新生成或转换失败的也一样，不会被当作孤儿删除
+     */
+    private void produced(Path dest) {
+        if (outputs != null) {
+            outputs.produced(dest);
+        }
+    }
 
-        });
+    /**
+     * 影响输出内容的配置项，变了所有页面都要重新生成。
+     */
+    private Map<String, String> config(String globalUrl) {
+        Map<String, String> config = new HashMap<>();
+        config.put("baseUrl", String.valueOf(globalUrl));
+        config.put("pandoc.version", generator.getPandocVersion());
+        return config;
+    }
+
+    /**
+     * 删除源文件已经不存在的页面。
+     */
+    private void removeOrphans(Path inputDir, Path outDir) {
+        OrphanRemover remover = orphanRemover != null ? orphanRemover
+                : new OrphanRemover(generator.getOutputSink(), dependencies, null);
+        for (Path orphan : dependencies.orphans(inputDir, outDir)) {
+            remover.remove(orphan, outDir);
+        }
+    }
+
+    private void submitBatch(Map<FutureTask<Map<Path, Integer>>, List<Path>> tasks,
+            List<Path[]> batch,
+            String globalUrl) {
+        List<Path> inputs  = new ArrayList<>();
+        List<Path> outputs = new ArrayList<>();
+        for (Path[] p : batch) {
+            inputs.add(p[0]);
+            outputs.add(p[1]);
+        }
+        submit(tasks, inputs, () -> generator.generate(inputs, outputs, globalUrl));
+    }
+
+    private void submit(Map<FutureTask<Map<Path, Integer>>, List<Path>> tasks,
+            List<Path> files,
+            Callable<Map<Path, Integer>> callable) {
+        FutureTask<Map<Path, Integer>> task = new FutureTask<>(callable);
+        tasks.put(task, files);
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * 等待所有转换结束。单个文件失败只记录，不影响其它文件。
+     */
+    private void awaitAll(Path inputDir,
+            Map<FutureTask<Map<Path, Integer>>, List<Path>> tasks,
+            BiConsumer<Path, Integer> onResult)
+    throws InterruptedException {
+        List<String> failures = new ArrayList<>();
+        int          total    = 0;
+        for (Map.Entry<FutureTask<Map<Path, Integer>>, List<Path>> entry : tasks.entrySet()) {
+            List<Path> files = entry.getValue();
+            total += files.size();
+            try {
+                entry.getKey().get().forEach((file, exitCode) -> {
+                    onResult.accept(file, exitCode);
+                    if (exitCode != 0) {
+                        failures.add(String.format("%s (exitCode = %d)", file, exitCode));
+                    }
+                });
+            } catch (ExecutionException e) {
+                System.err.printf("Failed to generate %s%n", files);
+                e.getCause().printStackTrace();
+                files.forEach(file -> failures.add(String.format("%s (%s)", file, e.getCause())));
+            }
+        }
+        if (!failures.isEmpty()) {
+            System.err.printf("%d of %d conversions failed in %s:%n", failures.size(), total, inputDir);
+            failures.forEach(f -> System.err.printf("    %s%n", f));
+        }
     }
 
     private Path getDestPath(Path file,
@@ -76,11 +248,45 @@ public class DirGenerator {
         return Paths.get(outDir.toString(), path.toString(), s + suffix);
     }
 
-    private boolean checkModified(Path file, Path dest) {
-        if (Files.isRegularFile(dest)) {
-            long dl = dest.toFile().lastModified();
-            long sl = file.toFile().lastModified();
-            if (dl > sl) {
+    /**
+     * 重新生成后页面仍然不比源文件新，说明内容和原来相同、没有重写，记下来，见 {@link VerifiedPages}
+     */
+    private void verified(Path file, Path dest) {
+        OutputSink sink = generator.getOutputSink();
+        if (verifiedPages == null || !sink.exists(dest)) {
+            return;
+        }
+        long sl = sourceModified(file);
+        long dl = sink.lastModified(dest);
+        if (dl <= sl) {
+            verifiedPages.verified(dest, sl, dl);
+        }
+    }
+
+    /**
+     * @return 源文件和文章模板中较晚的修改时间
+     */
+    private static long sourceModified(Path file) {
+        // 模板改了也要重新生成，有渲染缓存时只需要重新套模板
+        return Math.max(file.toFile().lastModified(), TemplateHelper.lastModified());
+    }
+
+    private boolean checkModified(Path file, Path dest, Map<String, String> config)
+    throws IOException {
+        if (dependencies != null) {
+            String reason = dependencies.staleReason(dest, config);
+            if (reason == null) {
+                System.out.printf("The source (%s) is not changed, IGNORED.%n", file);
+                return false;
+            }
+            System.out.printf("Regenerate %s: %s%n", file, reason);
+            return true;
+        }
+        OutputSink sink = generator.getOutputSink();
+        if (sink.exists(dest)) {
+            long dl = sink.lastModified(dest);
+            long sl = sourceModified(file);
+            if (dl > sl || (verifiedPages != null && verifiedPages.isVerified(dest, sl, dl))) {
                 System.out.printf("The source (%s) is not changed, IGNORED.%n", file);
                 return false;
             }
@@ -0,0 +1,131 @@
+package me.asu.blog;
+
+import asu.fastm.FastEx;
+import asu.fastm.FastmConfig;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * 一份独立的 fastm。
+ *
+ * <p>fastm 的配置和解析过的模板都保存在静态变量中，FastEx.parse 是否线程安全无法从源码确认。
+ * 这里用单独的类加载器再加载一次 fastm 所在的 jar，每个实例的静态状态互不相干；
+ * {@link TemplateHelper} 给每个渲染线程一个实例，渲染时线程之间不共享 fastm 的任何可变状态。
+ * JDK 和 model 中的对象仍由上级类加载器加载，在实例之间共用，它们只被读取。
+ *
+ * @author suk
+ */
+final class FastmInstance {
+
+    private static final URL CODE_SOURCE = codeSource();
+
+    private final Method setTemplateDir;
+    private final Method loadConfig;
+    private final Method parse;
+    /**
+     * 已加载的模板配置，和 TemplateHelper 当前的不同时重新加载
+     */
+    Object loaded;
+
+    FastmInstance() throws ReflectiveOperationException {
+        ClassLoader loader = new IsolatingClassLoader(CODE_SOURCE, FastEx.class.getClassLoader());
+        Class<?>    config = Class.forName(FastmConfig.class.getName(), true, loader);
+        Class<?>    ex     = Class.forName(FastEx.class.getName(), true, loader);
+        setTemplateDir = config.getMethod("setTemplateDir", String.class);
+        loadConfig     = config.getMethod("loadFastmConfigByFilePath", String.class);
+        parse          = ex.getMethod("parse", String.class, Object.class);
+    }
+
+    /**
+     * @return 能否找到 fastm 所在的 jar
+     */
+    static boolean isAvailable() {
+        return CODE_SOURCE != null;
+    }
+
+    /**
+     * 和 {@link TemplateHelper#init} 一样设置配置，并在当前线程把每个模板渲染一遍
+     */
+    void load(String templatesDir, Collection<String> names) {
+        try {
+            setTemplateDir.invoke(null, templatesDir);
+            loadConfig.invoke(null, templatesDir + "/fastm.xml");
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+        }
+        for (String name : names) {
+            try {
+                parse(name, new HashMap<>());
+            } catch (Exception e) {
+                System.err.printf("Can not load template %s: %s%n", name, e);
+            }
+        }
+    }
+
+    String parse(String templateName, Object value) throws Exception {
+        try {
+            return (String) parse.invoke(null, templateName, value);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * @return 加载 FastEx 的类加载器，测试用
+     */
+    ClassLoader loader() {
+        return parse.getDeclaringClass().getClassLoader();
+    }
+
+    private static URL codeSource() {
+        try {
+            return FastEx.class.getProtectionDomain().getCodeSource().getLocation();
+        } catch (RuntimeException e) {
+            // 没有 CodeSource 或者不允许读取
+            return null;
+        }
+    }
+
+    /**
+     * fastm 所在 jar 中的类由自己加载，其它的交给上级类加载器
+     */
+    private static final class IsolatingClassLoader extends URLClassLoader {
+
+        static {
+            registerAsParallelCapable();
+        }
+
+        IsolatingClassLoader(URL url, ClassLoader parent) {
+            super(new URL[]{url}, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    try {
+                        c = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 写到磁盘。
+ *
+ * <p>内容和已有文件相同时不写，文件的修改时间保持不变，同步到服务器时不会重复上传；
+ * 先比较大小，再和已有文件逐块比较，不把已有文件读入内存。
+ * 内容变了时写到同目录的临时文件再替换，中断时不会留下不完整的页面。
+ *
+ * @author suk
+ */
+public class FileOutputSink implements OutputSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AtomicInteger written   = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    /**
+     * 登记真正写入和删除的文件，为 null 时不登记。
+     */
+    private volatile OutputDelta    delta;
+    /**
+     * 登记本次构建的所有输出，包括内容没变而跳过的文件，为 null 时不登记。
+     */
+    private volatile OutputManifest manifest;
+
+    public void setDelta(OutputDelta delta) {
+        this.delta = delta;
+    }
+
+    public void setManifest(OutputManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    @Override
+    public void write(Path path, byte[] content) throws IOException {
+        write(path, out -> out.accept(ByteBuffer.wrap(content)), content.length);
+    }
+
+    /**
+     * 分块编码，不生成整个页面的 byte[]。
+     */
+    @Override
+    public void write(Path path, CharSequence content, Charset charset) throws IOException {
+        write(path, out -> encode(content, charset, out), -1);
+    }
+
+    @Override
+    public void copy(Path source, Path dest) throws IOException {
+        write(dest, out -> {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+                while (in.read(buf) >= 0) {
+                    buf.flip();
+                    if (!out.accept(buf)) {
+                        return;
+                    }
+                    buf.clear();
+                }
+            }
+        }, Files.size(source));
+    }
+
+    @Override
+    public boolean exists(Path path) {
+        return Files.isRegularFile(path);
+    }
+
+    @Override
+    public long lastModified(Path path) {
+        return path.toFile().lastModified();
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        OutputDelta d = delta;
+        if (Files.deleteIfExists(path) && d != null) {
+            d.deleted(path);
+        }
+    }
+
+    /**
+     * @return 上次调用之后写入和因内容相同跳过的文件数
+     */
+    public String drainStats() {
+        return String.format("%d written, %d unchanged", written.getAndSet(0),
+                unchanged.getAndSet(0));
+    }
+
+    /**
+     * 生成的内容，分块交给 {@link Chunks}
+     */
+    private interface Content {
+
+        void writeTo(Chunks out) throws IOException;
+    }
+
+    private interface Chunks {
+
+        /**
+         * @return false 时不再需要后面的内容
+         */
+        boolean accept(ByteBuffer chunk) throws IOException;
+    }
+
+    /**
+     * @param length 内容的字节数，未知时为 -1
+     */
+    private void write(Path path, Content content, long length) throws IOException {
+        OutputManifest m = manifest;
+        if (m != null) {
+            m.produced(path);
+        }
+        createParent(path);
+        BasicFileAttributes attrs = stat(path);
+        if (isSame(path, attrs, content, length)) {
+            unchanged.incrementAndGet();
+            return;
+        }
+        Path     tmp  = path.resolveSibling("." + path.getFileName() + ".tmp");
+        XXHash64 hash = new XXHash64();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            content.writeTo(chunk -> {
+                hash.update(chunk.duplicate());
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        written.incrementAndGet();
+        OutputDelta d = delta;
+        if (d != null) {
+            d.written(path, attrs != null, hash.digest());
+        }
+    }
+
+    /**
+     * 和已有文件逐块比较，遇到不同就停止
+     */
+    private static boolean isSame(Path path, BasicFileAttributes attrs, Content content,
+            long length) throws IOException {
+        if (attrs == null || !attrs.isRegularFile() || (length >= 0 && attrs.size() != length)) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer existing = ByteBuffer.allocate(BUFFER_SIZE);
+            boolean[]  same     = {true};
+            content.writeTo(chunk -> {
+                while (chunk.hasRemaining()) {
+                    existing.clear();
+                    existing.limit(Math.min(chunk.remaining(), existing.capacity()));
+                    while (existing.hasRemaining() && in.read(existing) >= 0) {
+                        // 读满为止
+                    }
+                    existing.flip();
+                    ByteBuffer expected = chunk.duplicate();
+                    expected.limit(expected.position() + existing.remaining());
+                    if (!existing.hasRemaining() || !expected.equals(existing)) {
+                        same[0] = false;
+                        return false;
+                    }
+                    chunk.position(expected.limit());
+                }
+                return true;
+            });
+            return same[0] && in.position() == in.size();
+        }
+    }
+
+    /**
+     * 和 String.getBytes 一样替换无法编码的字符
+     */
+    private static void encode(CharSequence content, Charset charset, Chunks out)
+    throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                                        .onMalformedInput(CodingErrorAction.REPLACE)
+                                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer in  = CharBuffer.wrap(content);
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        CoderResult r;
+        do {
+            r = encoder.encode(in, buf, true);
+            if (r.isError()) {
+                r.throwException();
+            }
+            if (!drain(buf, out)) {
+                return;
+            }
+        } while (r.isOverflow());
+        while (encoder.flush(buf).isOverflow()) {
+            if (!drain(buf, out)) {
+                return;
+            }
+        }
+        drain(buf, out);
+    }
+
+    private static boolean drain(ByteBuffer buf, Chunks out) throws IOException {
+        buf.flip();
+        boolean more = !buf.hasRemaining() || out.accept(buf);
+        buf.clear();
+        return more;
+    }
+
+    private static BasicFileAttributes stat(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void createParent(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (!Files.isDirectory(parent)) {
+            Files.createDirectories(parent);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import me.asu.shell.ExitCodeException;
+import me.asu.shell.Shell;
+import me.asu.shell.ShellCommandExecutor;
+
+/**
+ * 每个文件启动一个 pandoc 进程。
+ *
+ * @author suk
+ */
+public class ForkPandocBackend implements PandocBackend {
+
+    private Path pandoc = Paths.get("pandoc");
+    /**
+     * 单次转换的超时，毫秒，0 表示不限制
+     */
+    private final long timeout;
+    private volatile String version;
+
+    public ForkPandocBackend(String pandocPath) {
+        this(pandocPath, 0);
+    }
+
+    public ForkPandocBackend(String pandocPath, long timeout) {
+        if (pandocPath != null && !pandocPath.isEmpty()) {
+            pandoc = Paths.get(pandocPath);
+        }
+        this.timeout = timeout;
+    }
+
+    @Override
+    public String version() {
+        if (version == null) {
+            String[] runScriptCommand = Shell.getRunScriptCommand(pandoc.toFile());
+            String[] cmds             = Arrays.copyOf(runScriptCommand, runScriptCommand.length + 1);
+            cmds[cmds.length - 1] = "--version";
+            ShellCommandExecutor exec = new ShellCommandExecutor(cmds);
+            try {
+                exec.execute();
+                String output = exec.getOutput().trim();
+                int    i      = output.indexOf('\n');
+                version = i < 0 ? output : output.substring(0, i).trim();
+            } catch (IOException e) {
+                System.err.println("Can not get pandoc version: " + e);
+                version = "unknown";
+            }
+        }
+        return version;
+    }
+
+    /**
+     * 内容从 stdin 传给 pandoc，html 从 stdout 读取，不产生临时文件。
+     * 工作目录为源文件所在目录，#+INCLUDE 等相对路径照常解析。
+     * 超时后结束 pandoc 及其子进程，抛出 {@link ConversionTimeoutException}。
+     */
+    @Override
+    public String toHtml(SourceBuffer source, String from) throws IOException {
+        String[] runScriptCommand = Shell.getRunScriptCommand(pandoc.toFile());
+        String[] args             = {"-f", from, "-t", "html"};
+        String[] cmds             = new String[runScriptCommand.length + args.length];
+        System.arraycopy(runScriptCommand, 0, cmds, 0, runScriptCommand.length);
+        System.arraycopy(args, 0, cmds, runScriptCommand.length, args.length);
+        System.out.printf("Execute command： %s < %s%n", Arrays.toString(cmds), source.path());
+        Path                 dir  = source.path().toAbsolutePath().getParent();
+        ShellCommandExecutor exec = new ShellCommandExecutor(dir.toFile(), null, timeout, cmds);
+        exec.setStdin(source.buffer());
+        try {
+            exec.execute();
+        } catch (ExitCodeException e) {
+            if (exec.isTimedOut()) {
+                throw new ConversionTimeoutException(source.path(), timeout);
+            }
+            throw e;
+        }
+        if (exec.isOutputTruncated()) {
+            throw new IOException(source.path() + ": pandoc output exceeds "
+                    + ShellCommandExecutor.DEFAULT_MAX_OUTPUT_BYTES + " bytes");
+        }
+        // pandoc 的输出总是 UTF-8
+        return exec.getOutput(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,53 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 内容哈希工具。
+ *
+ * @author suk
+ */
+public class Hashes {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static byte[] md5(byte[] data) {
+        try {
+            return MessageDigest.getInstance("md5").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // 每个 JRE 都必须支持 md5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 流式计算文件的 XXH64，不把整个文件读入内存。
+     */
+    public static long xxh64(Path file) throws IOException {
+        XXHash64   h   = new XXHash64();
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                h.update(buf);
+                buf.clear();
+            }
+        }
+        return h.digest();
+    }
+
+    public static String hex(byte[] data) {
+        char[] chars = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            chars[i * 2]     = HEX[(data[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[data[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
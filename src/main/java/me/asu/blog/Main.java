@@ -1,20 +1,70 @@
 package me.asu.blog;
 
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import me.asu.shell.ShellExecutors;
 
 class Main {
 
-    static BlogContext ctx    = new BlogContext();
-    static Config      config = new Config();
+    static BlogContext     ctx    = new BlogContext();
+    static Config          config = new Config();
+    /**
+     * 页面的依赖记录，没有配置 cache.dir 时为 null。
+     */
+    static DependencyGraph dependencies;
+    /**
+     * 转换的重试和超时统计，每次构建结束时输出。
+     */
+    static ResilientPandocBackend conversions;
+    /**
+     * 已复制的静态资源，第一次复制时加载。
+     */
+    static AssetManifest assetManifest;
+    /**
+     * 本次构建要复制的静态资源，预览模式下为 null。
+     */
+    static StaticAssetPlan assetPlan;
+    /**
+     * 本次构建写入和删除的输出文件，预览模式下为 null。
+     */
+    static OutputDelta     delta;
+    /**
+     * 每次构建产生的输出文件，用来删除孤儿；没有配置 cache.dir 或预览模式下为 null。
+     */
+    static OutputManifest  outputs;
 
     static {
         String templateDir = config.getProperty("templates.dir");
+        TemplateHelper.setConcurrent(Boolean.parseBoolean(config.getProperty("template.concurrent", "true")));
         TemplateHelper.init(templateDir);
+        ctx.setTemplatesDir(Paths.get(templateDir));
 
         ctx.setPandocPath(config.getProperty("pandoc.path", "pandoc"));
+        ctx.setPandocMode(config.getProperty("pandoc.mode", "fork"));
+        ctx.setPandocWorkers(Integer.parseInt(config.getProperty("pandoc.workers", "0")));
+        ctx.setPandocBatchSize(Integer.parseInt(config.getProperty("pandoc.batch.size", "50")));
+        ctx.setPandocBatchMaxBytes(Long.parseLong(config.getProperty("pandoc.batch.maxBytes", "4096")));
+        ctx.setPandocTimeout(Long.parseLong(config.getProperty("pandoc.timeout", "60000")));
+        ctx.setPandocRetries(Integer.parseInt(config.getProperty("pandoc.retries", "1")));
+        ctx.setPandocRetryBackoff(Long.parseLong(config.getProperty("pandoc.retry.backoff", "500")));
+        ctx.setPandocHedge(Boolean.parseBoolean(config.getProperty("pandoc.hedge", "false")));
+        ctx.setConvertThreads(Integer.parseInt(config.getProperty("convert.threads", "0")));
+        ShellExecutors.configure(Integer.parseInt(config.getProperty("shell.pump.threads", "0")),
+                Boolean.parseBoolean(config.getProperty("shell.virtual.threads", "false")));
+        SourceScanner.setParallelism(Integer.parseInt(config.getProperty("scan.threads", "0")));
+        ctx.setAssetCopyMode(config.getProperty("assets.copy.mode", "copy"));
+        ctx.setWatchDebounce(Long.parseLong(config.getProperty("watch.debounce", "300")));
+        ctx.setPreviewPort(Integer.parseInt(config.getProperty("preview.port", "8000")));
         String globalUrl = config.getProperty("baseUrl", "/");
         ctx.setBaseUrl(globalUrl);
 
@@ -24,6 +74,17 @@ class Main {
         ctx.setBaseOutputPath(baseOutputPath);
         ctx.setSrc(Paths.get(config.getProperty("src")));
         ctx.setAssets(Paths.get(config.getProperty("assets")));
+        String cacheDir = config.getProperty("cache.dir");
+        if (cacheDir != null && !cacheDir.trim().isEmpty()) {
+            ctx.setCacheDir(Paths.get(cacheDir));
+            ctx.setScanner(SourceScanner.load(ctx.getCacheDir().resolve("scan.bin")));
+        }
+        ctx.setScanVerify(Boolean.parseBoolean(config.getProperty("scan.verify", "false")));
+        ctx.getScanner().setVerify(ctx.isScanVerify());
+        String deltaFile = config.getProperty("delta.file");
+        if (deltaFile != null && !deltaFile.trim().isEmpty()) {
+            ctx.setDeltaFile(Paths.get(deltaFile));
+        }
 
         // post
         String postCtxPath = config.getProperty("postContextPath");
@@ -68,36 +129,294 @@ class Main {
         ctx.setBookTarget(bookTarget);
     }
 
+    /**
+     * @param args {@code --watch} 构建之后继续监视源文件，变化时增量重新生成；
+     *             {@code --preview} 在内存中生成并启动预览服务器，同时监视源文件；
+     *             {@code --verify} 第一次构建时完整遍历源文件目录，不复用上次的目录记录
+     */
     public static void main(String[] args) {
+        boolean          preview = Arrays.asList(args).contains("--preview");
+        boolean          watch   = preview || Arrays.asList(args).contains("--watch");
+        ExecutorService  pool    = newConvertPool(ctx.getConvertThreads());
+        ArticleGenerator ag      = null;
+        PreviewServer    server  = null;
+        try {
+            ag = new ArticleGenerator(newPandocBackend());
+            MemoryOutputSink memory = null;
+            if (preview) {
+                memory = new MemoryOutputSink();
+                ctx.setPreview(true);
+                ctx.setOutputSink(memory);
+                ctx.setBaseUrl("http://127.0.0.1:" + ctx.getPreviewPort() + "/");
+                ag.setOutputSink(memory);
+            } else {
+                // 页面和索引共用一个输出目标，统计一起输出
+                ag.setOutputSink(ctx.getOutputSink());
+            }
+            if (ctx.getCacheDir() != null) {
+                ag.setRenderCache(new RenderCache(ctx.getCacheDir().resolve("render")));
+                if (!preview) {
+                    // 依赖记录描述的是磁盘上的输出
+                    dependencies = DependencyGraph.load(ctx.getCacheDir().resolve("deps.bin"));
+                }
+            }
+            if (Arrays.asList(args).contains("--verify")) {
+                ctx.getScanner().setVerify(true);
+            }
+            build(ag, pool, null);
+            ctx.getScanner().setVerify(ctx.isScanVerify());
+            if (preview) {
+                server = new PreviewServer(memory, Paths.get(ctx.getBaseOutputPath()),
+                        Arrays.asList(ctx.getSrc(), ctx.getAssets()), ctx.getPreviewPort());
+                server.start();
+                memory.drainChanged();
+            }
+            if (watch) {
+                PreviewServer    s = server;
+                MemoryOutputSink m = memory;
+                watch(ag, pool, () -> {
+                    if (s != null) {
+                        s.reload(m.drainChanged());
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            pool.shutdown();
+            if (ag != null) {
+                ag.close();
+            }
+        }
+    }
+
+    /**
+     * 构建一次。
+     *
+     * @param changed 变化的路径，为 null 时构建所有栏目；否则只遍历有变化的栏目，
+     *                索引、标签和归档总是重新生成
+     */
+    static void build(ArticleGenerator ag, ExecutorService pool, Set<Path> changed)
+    throws Exception {
+        // 源文件元数据只扫描一次，各索引共享
+        SiteModel[] model = new SiteModel[1];
+        assetPlan = ctx.isPreview() ? null : new StaticAssetPlan(ctx.getScanner());
+        delta     = ctx.isPreview() ? null : new OutputDelta();
+        if (!ctx.isPreview() && ctx.getCacheDir() != null) {
+            if (outputs == null) {
+                outputs = OutputManifest.load(ctx.getCacheDir().resolve("outputs.bin"));
+            }
+            outputs.start();
+        }
+        if (ctx.getOutputSink() instanceof FileOutputSink) {
+            ((FileOutputSink) ctx.getOutputSink()).setDelta(delta);
+            ((FileOutputSink) ctx.getOutputSink()).setManifest(outputs);
+        }
+
+        // 各栏目互不依赖，栏目的索引只等自己的文章；
+        // 栏目遍历时会把其中的静态资源登记到 assetPlan，所以资源复制在栏目之后
+        BuildScheduler scheduler = new BuildScheduler()
+                .stage("scan", () -> model[0] = SiteModel.scan(ctx))
+                .stage("posts", () -> {
+                    if (affects(changed, ctx.getPostSrc())) {
+                        generatePosts(ag, pool);
+                    }
+                })
+                .stage("index", () -> generateIndex(model[0]), "scan", "posts")
+                .stage("wiki", () -> {
+                    if (affects(changed, ctx.getWikiSrc())) {
+                        generateWiki(ag, pool);
+                    }
+                })
+                .stage("wiki-index", () -> generateWikiIndex(model[0]), "scan", "wiki")
+                .stage("reprint", () -> {
+                    if (affects(changed, ctx.getReprintSrc())) {
+                        generateReprint(ag, pool);
+                    }
+                })
+                .stage("reprint-index", () -> generateReprintIndex(model[0]), "scan", "reprint")
+                .stage("tags", () -> generateTags(model[0]), "scan")
+                .stage("archive", () -> generateArchive(model[0]), "scan")
+                .stage("books", () -> {
+                    if (affects(changed, ctx.getBookSrc())) {
+                        generateBooks(ag, pool);
+                    }
+                })
+                .stage("resources", () -> {
+                    // 栏目中登记的静态资源和 src、assets 一起复制
+                    if (assetPlan != null && (assetPlan.size() > 0 || affects(changed, ctx.getSrc())
+                            || affects(changed, ctx.getAssets()))) {
+                        copyRes(pool);
+                    }
+                }, "posts", "wiki", "reprint", "books");
+        List<String> failed = new ArrayList<>();
+        for (BuildScheduler.Result r : scheduler.run()) {
+            if (r.getStatus() != BuildScheduler.Status.OK) {
+                failed.add(r.getStage() + " " + r.getStatus());
+            }
+        }
+
+        if (outputs != null) {
+            if (changed == null && failed.isEmpty()) {
+                removeOrphans();
+                outputs.commit();
+                if (ag.getRenderCache() != null) {
+                    int swept = ag.getRenderCache().sweep(outputs::isProduced);
+                    if (swept > 0) {
+                        System.out.printf("Removed %d unreferenced render cache entries.%n", swept);
+                    }
+                }
+            } else {
+                // 只登记了一部分输出
+                outputs.merge();
+            }
+        }
+        if (dependencies != null) {
+            dependencies.save();
+        }
         try {
-            ArticleGenerator ag = new ArticleGenerator(ctx.getPandocPath());
-            generatePosts(ag);
-            generateIndex();
+            ctx.getScanner().save();
+        } catch (IOException e) {
+            System.err.println("Can not save scan cache: " + e);
+        }
+        System.out.println("Source scan: " + ctx.getScanner().drainStats());
+        if (ctx.getOutputSink() instanceof FileOutputSink) {
+            System.out.println("Output files: " + ((FileOutputSink) ctx.getOutputSink()).drainStats());
+        }
+        if (ag.getRenderCache() != null) {
+            ag.getRenderCache().save();
+            System.out.println("Render cache: " + ag.getRenderCache().stats());
+        }
+        if (conversions != null) {
+            conversions.drainReport();
+        }
+        // 失败的构建也已经写了部分文件，同样需要部署
+        if (delta != null && ctx.getDeltaFile() != null) {
+            delta.save(ctx.getDeltaFile(), Paths.get(ctx.getBaseOutputPath()));
+        }
+        if (!failed.isEmpty()) {
+            throw new Exception("Build stages did not complete: " + failed);
+        }
+    }
 
-            generateWiki(ag);
-            generateWikiIndex();
+    /**
+     * 删除上次构建产生、这次没有产生的文件，以及因此变空的目录。
+     */
+    private static void removeOrphans() throws IOException {
+        Path          base    = Paths.get(ctx.getBaseOutputPath());
+        OrphanRemover remover = orphanRemover(ctx.getOutputSink());
+        for (Path orphan : outputs.orphans(base.toAbsolutePath().normalize())) {
+            remover.remove(orphan, base);
+        }
+        if (assetManifest != null) {
+            assetManifest.save();
+        }
+        if (remover.getRemoved() > 0) {
+            System.out.printf("Removed %d orphaned output files.%n", remover.getRemoved());
+        }
+    }
 
-            generateReprint(ag);
-            generateReprintIndex();
+    private static OrphanRemover orphanRemover(OutputSink sink) {
+        return new OrphanRemover(sink, dependencies, assetManifest);
+    }
 
-            generateTags();
+    /**
+     * 监视源文件、资源和模板目录，合并短时间内的变化后在当前进程内增量构建。
+     */
+    static void watch(ArticleGenerator ag, ExecutorService pool, Runnable afterBuild)
+    throws Exception {
+        List<Path> roots = Arrays.asList(ctx.getPostSrc(), ctx.getWikiSrc(), ctx.getReprintSrc(),
+                ctx.getBookSrc(), ctx.getAssets(), ctx.getTemplatesDir());
+        try (SourceWatcher watcher = new SourceWatcher(roots, ctx.getWatchDebounce())) {
+            watcher.run(changed -> {
+                Set<Path> sections = changed;
+                if (affects(changed, ctx.getTemplatesDir())) {
+                    // 模板变了所有页面都要重新套模板
+                    TemplateHelper.init(ctx.getTemplatesDir().toString());
+                    sections = null;
+                }
+                if (dependencies != null) {
+                    dependencies.refresh();
+                }
+                // 原地修改不改变目录的修改时间
+                ctx.getScanner().invalidate(changed);
+                build(ag, pool, sections);
+                afterBuild.run();
+            });
+        }
+    }
 
-            generateArchive();
+    private static boolean affects(Set<Path> changed, Path dir) {
+        if (changed == null) {
+            return true;
+        }
+        if (dir == null) {
+            return false;
+        }
+        Path d = dir.toAbsolutePath().normalize();
+        for (Path p : changed) {
+            if (p.toAbsolutePath().normalize().startsWith(d)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            generateBooks(ag);
+    static PandocBackend newPandocBackend() {
+        conversions = new ResilientPandocBackend(newBaseBackend(), ctx.getPandocRetries(),
+                ctx.getPandocRetryBackoff(), ctx.isPandocHedge());
+        return conversions;
+    }
 
-            copyRes();
+    private static PandocBackend newBaseBackend() {
+        PandocBackend fork = new ForkPandocBackend(ctx.getPandocPath(), ctx.getPandocTimeout());
+        if ("server".equalsIgnoreCase(ctx.getPandocMode())) {
+            try {
+                // pandoc-server 的超时以秒为单位
+                int timeout = ctx.getPandocTimeout() > 0
+                        ? (int) Math.max(1, (ctx.getPandocTimeout() + 999) / 1000) : 60;
+                return new PandocServerBackend(ctx.getPandocPath(), ctx.getPandocWorkers(), timeout,
+                        fork);
+            } catch (IOException e) {
+                System.err.println("Can not start pandoc-server, fall back to batch mode: " + e);
+            }
+        } else if (!"batch".equalsIgnoreCase(ctx.getPandocMode())) {
+            return fork;
+        }
+        return new BatchPandocBackend(fork, ctx.getPandocBatchSize(), ctx.getPandocBatchMaxBytes());
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * 转换线程池。availableProcessors() 在容器中会遵守 cgroup 的 CPU 限制。
+     */
+    static ExecutorService newConvertPool(int threads) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
         }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "convert-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
     }
 
-    public static void generatePosts(ArticleGenerator ag) throws Exception {
+    public static void generatePosts(ArticleGenerator ag, ExecutorService pool)
+    throws Exception {
         Path input = ctx.getPostSrc();
         Path output = ctx.getPostTarget();
         String baseUrl = ctx.getBaseUrl();
-        DirGenerator generator = new DirGenerator(ag);
+        DirGenerator generator = new DirGenerator(ag, pool);
+        generator.setDependencies(dependencies);
+        generator.setAssetPlan(assetPlan);
+        generator.setOutputs(outputs);
+        generator.setOrphanRemover(orphanRemover(ag.getOutputSink()));
+        generator.setScanner(ctx.getScanner());
         if (!Files.isDirectory(input)) {
             System.err.println(input + " is not a directory");
             return;
@@ -107,15 +426,21 @@ class Main {
 
     }
 
-    public static void generateIndex() throws Exception {
+    public static void generateIndex(SiteModel model) throws Exception {
         IndexGenerator generator = new IndexGenerator();
-        generator.generate(ctx);
+        generator.generate(ctx, model);
     }
 
-    public static void generateWiki(ArticleGenerator ag) throws Exception {
+    public static void generateWiki(ArticleGenerator ag, ExecutorService pool)
+    throws Exception {
         Path input = ctx.getWikiSrc();
         Path output = ctx.getWikiTarget();
-        DirGenerator generator = new DirGenerator(ag);
+        DirGenerator generator = new DirGenerator(ag, pool);
+        generator.setDependencies(dependencies);
+        generator.setAssetPlan(assetPlan);
+        generator.setOutputs(outputs);
+        generator.setOrphanRemover(orphanRemover(ag.getOutputSink()));
+        generator.setScanner(ctx.getScanner());
         String baseUrl = ctx.getBaseUrl();
         if (!Files.isDirectory(input)) {
             System.err.println(input + " is not a directory");
@@ -125,24 +450,30 @@ class Main {
         generator.generate(input, output, baseUrl);
     }
 
-    public static void generateWikiIndex() throws Exception {
+    public static void generateWikiIndex(SiteModel model) throws Exception {
         WikiIndexGenerator generator = new WikiIndexGenerator();
-        generator.generate(ctx);
+        generator.generate(ctx, model);
     }
 
-    public static void generateTags() throws Exception {
+    public static void generateTags(SiteModel model) throws Exception {
         TagGenerator generator = new TagGenerator();
 
-        generator.generate(ctx);
+        generator.generate(ctx, model);
     }
 
-    public static void generateArchive() throws Exception {
+    public static void generateArchive(SiteModel model) throws Exception {
         ArchiveGenerator generator = new ArchiveGenerator();
-        generator.generate(ctx);
+        generator.generate(ctx, model);
     }
 
-    public static void generateBooks(ArticleGenerator ag) throws Exception {
-        DirGenerator generator = new DirGenerator(ag);
+    public static void generateBooks(ArticleGenerator ag, ExecutorService pool)
+    throws Exception {
+        DirGenerator generator = new DirGenerator(ag, pool);
+        generator.setDependencies(dependencies);
+        generator.setAssetPlan(assetPlan);
+        generator.setOutputs(outputs);
+        generator.setOrphanRemover(orphanRemover(ag.getOutputSink()));
+        generator.setScanner(ctx.getScanner());
         Path input = ctx.getBookSrc();
         Path output = ctx.getBookTarget();
         String baseUrl = ctx.getBaseUrl();
@@ -153,14 +484,38 @@ class Main {
         generator.generate(input, output, baseUrl);
     }
 
-    public static void copyRes() throws Exception {
-        ResourcesCopier copier = new ResourcesCopier();
-        copier.copy(ctx.getSrc(), Paths.get(ctx.getBaseOutputPath()), "css|pdf|png|jpg|jpeg|gif|htm|html|webp|bmp|ico");
-        copier.copy(ctx.getAssets(), Paths.get(ctx.getBaseOutputPath()), "css|pdf|png|jpg|jpeg|gif|js|json|ttf|htm|html|webp|bmp|ico");
+    /**
+     * 栏目目录中的文件已经由 DirGenerator 登记，这里补上 src 其余目录和 assets 中的文件，
+     * 然后一次复制。
+     */
+    public static void copyRes(ExecutorService pool) throws Exception {
+        if (assetManifest == null) {
+            assetManifest = AssetManifest.load(ctx.getCacheDir() == null ? null
+                    : ctx.getCacheDir().resolve("assets.bin"));
+        }
+        StaticAssetPlan plan = assetPlan == null ? new StaticAssetPlan(ctx.getScanner()) : assetPlan;
+        Path            out  = Paths.get(ctx.getBaseOutputPath());
+        plan.addDir(ctx.getSrc(), out, "css|pdf|png|jpg|jpeg|gif|htm|html|webp|bmp|ico");
+        plan.addDir(ctx.getAssets(), out, "css|pdf|png|jpg|jpeg|gif|js|json|ttf|htm|html|webp|bmp|ico");
+        ResourcesCopier copier = new ResourcesCopier(assetManifest, pool);
+        copier.setMode("link".equalsIgnoreCase(ctx.getAssetCopyMode())
+                ? ResourcesCopier.Mode.LINK : ResourcesCopier.Mode.COPY);
+        copier.setDelta(delta);
+        copier.copy(plan);
+        if (outputs != null) {
+            plan.entries().keySet().forEach(outputs::produced);
+        }
+        assetManifest.save();
     }
 
-    public static void generateReprint(ArticleGenerator ag) throws Exception {
-        DirGenerator generator = new DirGenerator(ag);
+    public static void generateReprint(ArticleGenerator ag, ExecutorService pool)
+    throws Exception {
+        DirGenerator generator = new DirGenerator(ag, pool);
+        generator.setDependencies(dependencies);
+        generator.setAssetPlan(assetPlan);
+        generator.setOutputs(outputs);
+        generator.setOrphanRemover(orphanRemover(ag.getOutputSink()));
+        generator.setScanner(ctx.getScanner());
         Path input = ctx.getReprintSrc();
         Path output = ctx.getReprintTarget();
         String baseUrl = ctx.getBaseUrl();
@@ -171,8 +526,8 @@ class Main {
         generator.generate(input, output, baseUrl);
     }
 
-    public static void generateReprintIndex() throws Exception {
+    public static void generateReprintIndex(SiteModel model) throws Exception {
         ReprintIndexGenerator generator = new ReprintIndexGenerator();
-        generator.generate(ctx);
+        generator.generate(ctx, model);
     }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 保存在内存中的输出，供预览服务器使用，不写磁盘。
+ *
+ * <p>复制的静态文件只记录源文件路径，读取时再从源文件读。
+ *
+ * @author suk
+ */
+public class MemoryOutputSink implements OutputSink {
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * 上次 {@link #drainChanged()} 之后写过的页面
+     */
+    private final Set<Path>        changed = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void write(Path path, byte[] content) {
+        Path key = key(path);
+        entries.put(key, new Entry(content, null));
+        changed.add(key);
+    }
+
+    @Override
+    public void copy(Path source, Path dest) {
+        Path key = key(dest);
+        entries.put(key, new Entry(null, source));
+        changed.add(key);
+    }
+
+    @Override
+    public boolean exists(Path path) {
+        return entries.containsKey(key(path));
+    }
+
+    @Override
+    public long lastModified(Path path) {
+        Entry e = entries.get(key(path));
+        return e == null ? 0 : e.lastModified;
+    }
+
+    @Override
+    public void delete(Path path) {
+        if (entries.remove(key(path)) != null) {
+            changed.add(key(path));
+        }
+    }
+
+    /**
+     * @return 文件内容，不存在时返回 null
+     */
+    public byte[] read(Path path) throws IOException {
+        Entry e = entries.get(key(path));
+        if (e == null) {
+            return null;
+        }
+        return e.content != null ? e.content : Files.readAllBytes(e.source);
+    }
+
+    public Set<Path> drainChanged() {
+        Set<Path> result = new HashSet<>(changed);
+        changed.removeAll(result);
+        return result;
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static class Entry {
+
+        final byte[] content;
+        final Path   source;
+        final long   lastModified = System.currentTimeMillis();
+
+        Entry(byte[] content, Path source) {
+            this.content = content;
+            this.source  = source;
+        }
+    }
+}
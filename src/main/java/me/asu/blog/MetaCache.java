@@ -0,0 +1,246 @@
+package me.asu.blog;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 源文件元数据的持久化缓存。
+ *
+ * <p>以路径为键，记录文件大小、修改时间和内容的 md5。大小和修改时间没变的直接使用缓存，
+ * 不读文件；变了的读出来比较 md5，内容相同（例如 git checkout 重置了修改时间）也不再解析。
+ * 元数据只在文件头的格式只读开头一段，md5 也只算这一段，正文的修改不影响元数据。
+ * 文件头记录格式版本和解析器版本 {@link GetSrcFileInfoVisitor#PARSER_VERSION}，
+ * 任一不同则整个缓存作废。
+ *
+ * @author suk
+ */
+public class MetaCache {
+
+    private static final int MAGIC          = 0x41534d43; // ASMC
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * 从文件内容解析元数据
+     */
+    public interface Parser {
+
+        SrcFileInfo parse(SourceBuffer content) throws IOException;
+    }
+
+    private final Path               file;
+    private final int                parserVersion;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * 本次运行用到的条目，保存时只写这些，删除的源文件自然被清理。
+     */
+    private final Map<String, Entry> seen    = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private final AtomicInteger hits   = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public MetaCache(Path file, int parserVersion) {
+        this.file          = file;
+        this.parserVersion = parserVersion;
+    }
+
+    public static MetaCache load(Path file, int parserVersion) {
+        MetaCache cache = new MetaCache(file, parserVersion);
+        if (!Files.isRegularFile(file)) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || in.readInt() != parserVersion) {
+                System.out.printf("Metadata cache %s is outdated, IGNORED.%n", file);
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry e = Entry.read(in);
+                cache.entries.put(e.path, e);
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not load metadata cache %s: %s%n", file, e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * 取文件的元数据，缓存失效时读取文件开头最多 maxBytes 个字节并调用 parser 解析。
+     *
+     * @param maxBytes 为 Integer.MAX_VALUE 时读取整个文件
+     */
+    public SrcFileInfo get(Path path, BasicFileAttributes attrs, int maxBytes, Parser parser)
+    throws IOException {
+        String key   = path.toString();
+        long   size  = attrs.size();
+        long   mtime = attrs.lastModifiedTime().toMillis();
+        Entry  e     = entries.get(key);
+        if (e != null && e.size == size && e.mtime == mtime) {
+            seen.put(key, e);
+            hits.incrementAndGet();
+            return e.toInfo(path);
+        }
+
+        // 读一次，哈希和解析共用
+        SourceBuffer content = maxBytes == Integer.MAX_VALUE ? SourceBuffer.read(path)
+                : SourceBuffer.readPrefix(path, maxBytes);
+        byte[]       hash    = content.md5();
+        // 只读了开头一段时哈希已经覆盖元数据所在的部分，正文改变了文件大小也不用重新解析
+        if (e != null && (e.size == size || !content.isComplete()) && Arrays.equals(e.hash, hash)) {
+            e.size  = size;
+            e.mtime = mtime;
+        } else {
+            e = Entry.of(key, size, mtime, hash, parser.parse(content));
+            misses.incrementAndGet();
+        }
+        entries.put(key, e);
+        seen.put(key, e);
+        dirty = true;
+        return e.toInfo(path);
+    }
+
+    public void save() throws IOException {
+        if (!dirty && seen.size() == entries.size()) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(parserVersion);
+            out.writeInt(seen.size());
+            for (Entry e : seen.values()) {
+                e.write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    static class Entry {
+
+        String   path;
+        long     size;
+        long     mtime;
+        byte[]   hash;
+        String   title;
+        long     date;
+        String[] tags;
+        String   description;
+        String   author;
+        String   authorWebsite;
+
+        static Entry of(String path, long size, long mtime, byte[] hash, SrcFileInfo info) {
+            Entry e = new Entry();
+            e.path          = path;
+            e.size          = size;
+            e.mtime         = mtime;
+            e.hash          = hash;
+            e.title         = info.getTitle();
+            e.date          = info.getArticleDate() == null ? Long.MIN_VALUE : info.getArticleDate()
+                                                                               .getTime();
+            e.tags          = info.getFileTags();
+            e.description   = info.getDescription();
+            e.author        = info.getAuthor();
+            e.authorWebsite = info.getAuthorWebsite();
+            return e;
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            Entry e = new Entry();
+            e.path  = readString(in);
+            e.size  = in.readLong();
+            e.mtime = in.readLong();
+            e.hash  = new byte[in.readUnsignedByte()];
+            in.readFully(e.hash);
+            e.title = readString(in);
+            e.date  = in.readLong();
+            int n = in.readInt();
+            if (n >= 0) {
+                e.tags = new String[n];
+                for (int i = 0; i < n; i++) {
+                    e.tags[i] = readString(in);
+                }
+            }
+            e.description   = readString(in);
+            e.author        = readString(in);
+            e.authorWebsite = readString(in);
+            return e;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, path);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeByte(hash.length);
+            out.write(hash);
+            writeString(out, title);
+            out.writeLong(date);
+            if (tags == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(tags.length);
+                for (String t : tags) {
+                    writeString(out, t);
+                }
+            }
+            writeString(out, description);
+            writeString(out, author);
+            writeString(out, authorWebsite);
+        }
+
+        SrcFileInfo toInfo(Path p) {
+            SrcFileInfo s = new SrcFileInfo();
+            s.setPath(p);
+            s.setLastModified(mtime);
+            s.setTitle(title);
+            s.setArticleDate(date == Long.MIN_VALUE ? null : new Date(date));
+            s.setFileTags(tags == null ? null : tags.clone());
+            s.setDescription(description);
+            s.setAuthor(author);
+            s.setAuthorWebsite(authorWebsite);
+            return s;
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int len = in.readInt();
+            if (len < 0) {
+                return null;
+            }
+            byte[] b = new byte[len];
+            in.readFully(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+}
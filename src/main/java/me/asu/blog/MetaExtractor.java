@@ -0,0 +1,297 @@
+package me.asu.blog;
+
+import static me.asu.blog.DateUtils.parseDate;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 从源文件头部提取元数据，每种格式一个实现，逐行读一遍，所有键一起匹配。
+ *
+ * <pre>
+ * org，不区分大小写，遇到第一个不是 #、也不是空行的行结束：
+ * #+TITLE:       TITLE
+ * #+DATE:        &lt;2016-05-10 20:00&gt;
+ * #+filetags:    linux reprint
+ * #+DESCRIPTION: DESCRIPTION
+ * #+AUTHOR:      NAME
+ * #+AUTHORWEBSITE:  LINK
+ *
+ * markdown，写在注释中，键和 org 相同：
+ * [comment]: &lt;&gt; (TITLE: TITLE)
+ * [//]: # (DATE: &lt;2016-05-10 20:00&gt;)
+ *
+ * html，一个标签一行，遇到 &lt;/head&gt; 结束：
+ * &lt;meta name="author" content="author" /&gt;
+ * &lt;meta name="author-website" content="AUTHORWEBSITE LINK" /&gt;
+ * &lt;meta name="description" content="description" /&gt;
+ * &lt;meta name="keywords" content="linux reprint" /&gt;
+ * &lt;meta name="date" content="2016-05-10 20:00" /&gt;
+ * &lt;title&gt;TITLE&lt;/title&gt;
+ * </pre>
+ *
+ * @author suk
+ */
+public abstract class MetaExtractor {
+
+    private static final Pattern MD_COMMENT = Pattern.compile(
+            "^\\[(?:comment|//)\\]:\\s*(?:<>|#)\\s*\\(?(.+?)\\)?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HTML_TITLE = Pattern.compile(
+            "^\\s*<title>(.+)</title>\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HTML_META  = Pattern.compile(
+            "^\\s*<meta\\s+name=\"([^\"]+)\"\\s+content=\"(.+)\"\\s*/?>\\s*$", Pattern.CASE_INSENSITIVE);
+
+    public static final MetaExtractor ORG      = new OrgExtractor();
+    public static final MetaExtractor MARKDOWN = new MarkdownExtractor();
+    public static final MetaExtractor HTML     = new HtmlExtractor();
+
+    /**
+     * @return 文件对应的提取器，不支持的格式返回 null
+     */
+    public static MetaExtractor of(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".org")) {
+            return ORG;
+        } else if (name.endsWith(".md")) {
+            return MARKDOWN;
+        } else if (name.endsWith(".html") || name.endsWith(".htm")) {
+            return HTML;
+        }
+        return null;
+    }
+
+    /**
+     * 从文件读取，读到头部结束为止。
+     */
+    public SrcFileInfo extract(Path file, Charset charset) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, charset)) {
+            return extract(file, reader);
+        }
+    }
+
+    /**
+     * 只需要文件头的格式只取开头 {@link SourceBuffer#HEADER_PREFIX} 字节。
+     */
+    public SrcFileInfo extract(Path file, SourceBuffer source, Charset charset) throws IOException {
+        return extract(file, source.prefix(headerOnly() ? SourceBuffer.HEADER_PREFIX : Integer.MAX_VALUE),
+                charset);
+    }
+
+    public SrcFileInfo extract(Path file, byte[] content, Charset charset) throws IOException {
+        if (!isAsciiCompatible(charset)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(content), charset))) {
+                return extract(file, reader);
+            }
+        }
+        // 换行符是单字节的编码直接按字节分行，只解码头部的行
+        Fields f     = new Fields();
+        int    start = 0;
+        while (start < content.length) {
+            int end = start;
+            while (end < content.length && content[end] != '\n') {
+                end++;
+            }
+            int len = end > start && content[end - 1] == '\r' ? end - start - 1 : end - start;
+            if (len == 0 || mayMatch(content[start])) {
+                if (!scan(new String(content, start, len, charset), f) || f.isComplete()) {
+                    break;
+                }
+            }
+            start = end + 1;
+        }
+        return toInfo(file, f);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] b = "\r\n#<[".getBytes(charset);
+        return b.length == 5 && b[0] == '\r' && b[1] == '\n' && b[2] == '#' && b[3] == '<' && b[4] == '[';
+    }
+
+    private SrcFileInfo extract(Path file, BufferedReader reader) throws IOException {
+        Fields f = new Fields();
+        String line;
+        while ((line = reader.readLine()) != null && scan(line, f)) {
+            if (f.isComplete()) {
+                break;
+            }
+        }
+        return toInfo(file, f);
+    }
+
+    private SrcFileInfo toInfo(Path file, Fields f) {
+        SrcFileInfo s = new SrcFileInfo();
+        s.setPath(file);
+        s.setLastModified(file.toFile().lastModified());
+        fill(s, f);
+        return s;
+    }
+
+    /**
+     * 元数据是否只出现在文件头
+     */
+    boolean headerOnly() {
+        return true;
+    }
+
+    /**
+     * 按行首字节快速排除不需要解码的行
+     */
+    boolean mayMatch(byte first) {
+        return true;
+    }
+
+    /**
+     * 处理一行
+     *
+     * @return false 表示头部已经结束
+     */
+    abstract boolean scan(String line, Fields f);
+
+    /**
+     * org 和 markdown 没有的值为空字符串，和原来的解析结果一致。
+     */
+    void fill(SrcFileInfo s, Fields f) {
+        s.setTitle(f.title == null ? "" : f.title);
+        s.setArticleDate(f.date == null ? null : parseDate(f.date));
+        s.setFileTags(f.tags == null ? null : f.tags.split("\\s+"));
+        s.setDescription(f.description == null ? "" : f.description);
+        s.setAuthor(f.author == null ? "" : f.author);
+        s.setAuthorWebsite(f.authorWebsite == null ? "" : f.authorWebsite);
+    }
+
+    /**
+     * 解析 {@code KEY: value}，键不区分大小写，同一个键只取第一个非空的值。
+     */
+    static void keyValue(String s, int from, Fields f) {
+        int colon = s.indexOf(':', from);
+        if (colon < 0) {
+            return;
+        }
+        String key   = s.substring(from, colon).trim();
+        String value = s.substring(colon + 1).trim();
+        if (value.isEmpty()) {
+            return;
+        }
+        if ("TITLE".equalsIgnoreCase(key)) {
+            f.title = f.title == null ? value : f.title;
+        } else if ("DATE".equalsIgnoreCase(key)) {
+            // 日期写在尖括号中
+            if (f.date == null && value.length() > 2 && value.charAt(0) == '<'
+                    && value.charAt(value.length() - 1) == '>') {
+                f.date = value.substring(1, value.length() - 1);
+            }
+        } else if ("filetags".equalsIgnoreCase(key)) {
+            f.tags = f.tags == null ? value : f.tags;
+        } else if ("DESCRIPTION".equalsIgnoreCase(key)) {
+            f.description = f.description == null ? value : f.description;
+        } else if ("AUTHOR".equalsIgnoreCase(key)) {
+            f.author = f.author == null ? value : f.author;
+        } else if ("AUTHORWEBSITE".equalsIgnoreCase(key)) {
+            f.authorWebsite = f.authorWebsite == null ? value : f.authorWebsite;
+        }
+    }
+
+    static class Fields {
+
+        String title;
+        String date;
+        String tags;
+        String description;
+        String author;
+        String authorWebsite;
+
+        boolean isComplete() {
+            return title != null && date != null && tags != null && description != null
+                    && author != null && authorWebsite != null;
+        }
+    }
+
+    static class OrgExtractor extends MetaExtractor {
+
+        @Override
+        boolean scan(String line, Fields f) {
+            if (line.startsWith("#+")) {
+                keyValue(line, 2, f);
+                return true;
+            }
+            // 头部中间可以有空行和注释
+            return line.trim().isEmpty() || line.startsWith("#");
+        }
+    }
+
+    static class MarkdownExtractor extends MetaExtractor {
+
+        @Override
+        boolean headerOnly() {
+            return false;
+        }
+
+        @Override
+        boolean mayMatch(byte first) {
+            return first == '[';
+        }
+
+        @Override
+        boolean scan(String line, Fields f) {
+            // 注释可以出现在任何位置，先用首字符排除正文
+            if (line.startsWith("[")) {
+                Matcher m = MD_COMMENT.matcher(line);
+                if (m.matches()) {
+                    keyValue(m.group(1), 0, f);
+                }
+            }
+            return true;
+        }
+    }
+
+    static class HtmlExtractor extends MetaExtractor {
+
+        @Override
+        boolean scan(String line, Fields f) {
+            if (line.indexOf('<') < 0) {
+                return true;
+            }
+            Matcher m = HTML_META.matcher(line);
+            if (m.matches()) {
+                String name  = m.group(1).toLowerCase();
+                String value = m.group(2);
+                if ("date".equals(name)) {
+                    f.date = f.date == null ? value : f.date;
+                } else if ("keywords".equals(name)) {
+                    f.tags = f.tags == null ? value : f.tags;
+                } else if ("description".equals(name)) {
+                    f.description = f.description == null ? value : f.description;
+                } else if ("author".equals(name)) {
+                    f.author = f.author == null ? value : f.author;
+                } else if ("author-website".equals(name)) {
+                    f.authorWebsite = f.authorWebsite == null ? value : f.authorWebsite;
+                }
+                return true;
+            }
+            m = HTML_TITLE.matcher(line);
+            if (m.matches()) {
+                f.title = f.title == null ? m.group(1) : f.title;
+                return true;
+            }
+            return !line.toLowerCase().contains("</head>");
+        }
+
+        @Override
+        void fill(SrcFileInfo s, Fields f) {
+            s.setTitle(f.title);
+            s.setArticleDate(f.date == null ? null : parseDate(f.date));
+            s.setFileTags(f.tags == null ? null : f.tags.split("\\s+"));
+            s.setDescription(f.description);
+            s.setAuthor(f.author);
+            s.setAuthorWebsite(f.authorWebsite);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package me.asu.blog;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 按需生成的模板数据行。
+ *
+ * <p>模板遍历到第 i 行时才由 items 中的第 i 项生成对应的 Map，用过即可回收，
+ * 归档、标签这类聚合页面不用先把所有行都放进一个 {@code List<Map>}。
+ *
+ * @author suk
+ */
+public class ModelRows<T> extends AbstractList<Map<String, Object>> {
+
+    private final List<T>                          items;
+    private final Function<T, Map<String, Object>> row;
+    private final List<Map<String, Object>>        tail = new ArrayList<>();
+
+    public ModelRows(List<T> items, Function<T, Map<String, Object>> row) {
+        this.items = items;
+        this.row   = row;
+    }
+
+    /**
+     * 在最后追加固定的一行
+     */
+    public ModelRows<T> append(Map<String, Object> m) {
+        tail.add(m);
+        return this;
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        if (index < items.size()) {
+            return row.apply(items.get(index));
+        }
+        return tail.get(index - items.size());
+    }
+
+    @Override
+    public int size() {
+        return items.size() + tail.size();
+    }
+}
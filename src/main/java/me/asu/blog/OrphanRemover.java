@@ -0,0 +1,89 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 删除不再生成的输出文件。
+ *
+ * <p>通过输出目标删除（同时登记到变化列表），从依赖记录和静态资源清单中去掉，再删除因此变空的目录。
+ * 完整构建结束时按 {@link OutputManifest} 删除孤儿，栏目生成时按 {@link DependencyGraph}
+ * 删除源文件已删除的页面，两处都用这里，行为和日志相同。
+ *
+ * @author suk
+ */
+public class OrphanRemover {
+
+    private final OutputSink      sink;
+    /**
+     * 为 null 时不更新
+     */
+    private final DependencyGraph dependencies;
+    /**
+     * 为 null 时不更新
+     */
+    private final AssetManifest   assets;
+    private final AtomicInteger   removed = new AtomicInteger();
+
+    public OrphanRemover(OutputSink sink, DependencyGraph dependencies, AssetManifest assets) {
+        this.sink         = sink;
+        this.dependencies = dependencies;
+        this.assets       = assets;
+    }
+
+    /**
+     * @param base 变空的目录删除到 base 为止，base 本身不删除
+     * @return 是否删除了文件；文件已经不存在时只清理记录
+     */
+    public boolean remove(Path orphan, Path base) {
+        Path    file    = orphan.toAbsolutePath().normalize();
+        boolean existed = sink.exists(file);
+        try {
+            sink.delete(file);
+        } catch (IOException e) {
+            System.err.printf("Can not remove %s: %s%n", file, e);
+            return false;
+        }
+        if (dependencies != null) {
+            dependencies.remove(file);
+        }
+        if (assets != null) {
+            assets.remove(file);
+        }
+        if (!existed) {
+            return false;
+        }
+        removed.incrementAndGet();
+        System.out.printf("%s is no longer generated, REMOVED.%n", file);
+        removeEmptyDirs(file.getParent(), base.toAbsolutePath().normalize());
+        return true;
+    }
+
+    /**
+     * @return 删除的文件数
+     */
+    public int getRemoved() {
+        return removed.get();
+    }
+
+    private static void removeEmptyDirs(Path dir, Path base) {
+        for (; dir != null && !dir.equals(base) && dir.startsWith(base); dir = dir.getParent()) {
+            try (Stream<Path> s = Files.list(dir)) {
+                if (s.findAny().isPresent()) {
+                    return;
+                }
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(dir);
+            } catch (IOException e) {
+                // 同时有文件写入
+                return;
+            }
+        }
+    }
+}
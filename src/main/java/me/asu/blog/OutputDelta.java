@@ -0,0 +1,114 @@
+package me.asu.blog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一次构建中输出目录的变化：新增、修改和删除的文件，以及新内容的 XXH64。
+ *
+ * <p>由 {@link FileOutputSink} 和 {@link ResourcesCopier} 在真正写入或删除时登记，
+ * 内容没变而跳过的文件不会出现，构建结束后不需要再扫描输出目录。
+ * 部署时只需上传其中的新增和修改、删除其中的删除。
+ *
+ * <p>{@link #save} 写出的格式每行一个文件，以 tab 分隔：
+ * <pre>
+ * A	0123456789abcdef	posts/new.html
+ * M	fedcba9876543210	index.html
+ * D	-	posts/old.html
+ * </pre>
+ * 路径相对于输出目录，以 / 分隔，按路径排序。
+ *
+ * @author suk
+ */
+public class OutputDelta {
+
+    public enum Kind {
+        A, M, D
+    }
+
+    public static class Change {
+
+        final Kind kind;
+        final long hash;
+
+        Change(Kind kind, long hash) {
+            this.kind = kind;
+            this.hash = hash;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+    }
+
+    private final Map<Path, Change> changes = new ConcurrentHashMap<>();
+
+    /**
+     * @param existed 写入之前文件是否存在
+     */
+    public void written(Path path, boolean existed, long hash) {
+        changes.compute(key(path), (k, prev) -> {
+            // 本次构建中新增的文件仍然算新增；先删除再写入的算修改
+            boolean added = prev == null ? !existed : prev.kind == Kind.A;
+            return new Change(added ? Kind.A : Kind.M, hash);
+        });
+    }
+
+    public void deleted(Path path) {
+        changes.compute(key(path), (k, prev) -> {
+            // 本次构建中新增后又删除的文件，对部署来说没有变化
+            return prev != null && prev.kind == Kind.A ? null : new Change(Kind.D, 0);
+        });
+    }
+
+    public Change get(Path path) {
+        return changes.get(key(path));
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * 写出 baseDir 下的变化，先写临时文件再替换，部署脚本不会读到一半的列表。
+     */
+    public void save(Path file, Path baseDir) throws IOException {
+        Path                base  = key(baseDir);
+        Map<String, Change> lines = new TreeMap<>();
+        changes.forEach((p, c) -> {
+            if (p.startsWith(base)) {
+                lines.put(base.relativize(p).toString().replace('\\', '/'), c);
+            }
+        });
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Change> e : lines.entrySet()) {
+                Change c = e.getValue();
+                out.write(c.kind.name());
+                out.write('\t');
+                out.write(c.kind == Kind.D ? "-" : String.format("%016x", c.hash));
+                out.write('\t');
+                out.write(e.getKey());
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        System.out.printf("Output delta: %d files changed, written to %s%n", lines.size(), file);
+    }
+
+    private static Path key(Path p) {
+        return p.toAbsolutePath().normalize();
+    }
+}
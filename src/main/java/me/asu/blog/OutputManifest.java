@@ -0,0 +1,129 @@
+package me.asu.blog;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 构建产生的所有输出文件。
+ *
+ * <p>每次构建登记写入的、内容没变跳过的、源文件没变不用重新生成的页面，以及复制计划中的静态资源。
+ * 完整且成功的构建结束后，上次有、这次没有的文件就是源文件已删除或改名留下的孤儿，
+ * 直接按清单删除，不遍历输出目录。
+ * 增量构建或失败的构建只登记了一部分输出，不删除，把这次的输出并入清单。
+ *
+ * @author suk
+ */
+public class OutputManifest {
+
+    private static final int MAGIC          = 0x4f55544d; // OUTM
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path        file;
+    private final Set<String> previous = new HashSet<>();
+    private final Set<String> current  = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param file 保存位置，为 null 时只在内存中
+     */
+    public OutputManifest(Path file) {
+        this.file = file;
+    }
+
+    public static OutputManifest load(Path file) {
+        OutputManifest manifest = new OutputManifest(file);
+        if (file == null || !Files.isRegularFile(file)) {
+            return manifest;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.out.printf("Output manifest %s is outdated, IGNORED.%n", file);
+                return manifest;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                manifest.previous.add(in.readUTF());
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not load output manifest %s: %s%n", file, e);
+            manifest.previous.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * 开始一次构建
+     */
+    public void start() {
+        current.clear();
+    }
+
+    /**
+     * 登记本次构建的一个输出文件
+     */
+    public void produced(Path path) {
+        current.add(AssetManifest.key(path));
+    }
+
+    public boolean isProduced(Path path) {
+        return current.contains(AssetManifest.key(path));
+    }
+
+    /**
+     * @return 上次构建有、本次没有的 baseDir 下的文件
+     */
+    public List<Path> orphans(Path baseDir) {
+        Path       base   = baseDir.toAbsolutePath().normalize();
+        List<Path> result = new ArrayList<>();
+        for (String s : previous) {
+            Path p = Paths.get(s);
+            // 输出目录改过时旧目录下的文件不归这次构建管
+            if (!current.contains(s) && p.startsWith(base) && !p.equals(base)) {
+                result.add(p);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * 完整构建成功：本次的输出替换清单
+     */
+    public void commit() throws IOException {
+        previous.clear();
+        previous.addAll(current);
+        save();
+    }
+
+    /**
+     * 增量或失败的构建：本次的输出并入清单
+     */
+    public void merge() throws IOException {
+        if (previous.addAll(current)) {
+            save();
+        }
+    }
+
+    private void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(previous.size());
+            for (String s : previous) {
+                out.writeUTF(s);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,39 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * 生成结果的去处。默认写到磁盘，预览模式下保存在内存中。
+ *
+ * @author suk
+ */
+public interface OutputSink {
+
+    /**
+     * 写入文件，需要时创建上级目录
+     */
+    void write(Path path, byte[] content) throws IOException;
+
+    /**
+     * 按 charset 编码后写入文件
+     */
+    default void write(Path path, CharSequence content, Charset charset) throws IOException {
+        write(path, content.toString().getBytes(charset));
+    }
+
+    /**
+     * 把源文件原样复制到 dest
+     */
+    void copy(Path source, Path dest) throws IOException;
+
+    boolean exists(Path path);
+
+    /**
+     * @return 修改时间，不存在时返回 0
+     */
+    long lastModified(Path path);
+
+    void delete(Path path) throws IOException;
+}
@@ -0,0 +1,69 @@
+package me.asu.blog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * pandoc 转换后端：把一个源文件转换成 html 片段。
+ *
+ * @author suk
+ */
+public interface PandocBackend extends Closeable {
+
+    /**
+     * 转换已经读入内存的源文件。
+     *
+     * @param source 源文件内容
+     * @param from   源格式，org 或 markdown
+     * @return html 片段
+     * @throws IOException 转换失败，pandoc 退出码非 0 时为 {@link me.asu.shell.ExitCodeException}
+     */
+    String toHtml(SourceBuffer source, String from) throws IOException;
+
+    /**
+     * 转换文件。
+     */
+    default String toHtml(Path input, String from) throws IOException {
+        return toHtml(SourceBuffer.read(input), from);
+    }
+
+    /**
+     * 一次转换多个同格式的文件。
+     *
+     * @param inputs 源文件内容
+     * @param from   源格式
+     * @return 与 inputs 一一对应的 html 片段，为 null 的表示该文件需要单独调用
+     * {@link #toHtml(SourceBuffer, String)} 转换
+     * @throws IOException 转换失败
+     */
+    default List<String> toHtml(List<SourceBuffer> inputs, String from) throws IOException {
+        return new ArrayList<>(Collections.nCopies(inputs.size(), null));
+    }
+
+    /**
+     * pandoc 的版本，作为渲染缓存键的一部分。
+     */
+    String version();
+
+    /**
+     * 每批最多合并的文件数，1 表示不合并。
+     */
+    default int batchSize() {
+        return 1;
+    }
+
+    /**
+     * 参与合并的文件大小上限，字节。
+     */
+    default long batchMaxBytes() {
+        return 0;
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,309 @@
+package me.asu.blog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
+
+/**
+ * 常驻的 pandoc-server 进程池，省掉每个文件启动一次 pandoc 的开销。
+ *
+ * <p>需要 pandoc 3.0 以上，以 {@code pandoc server --port N} 启动。
+ * 每次取用前检查进程是否存活，请求失败时检查健康状态并重启，再重试一次。
+ * pandoc-server 不允许访问文件系统，含 {@code #+INCLUDE} / {@code #+SETUPFILE}
+ * 的文件交给 fallback 后端处理。
+ *
+ * @author suk
+ */
+public class PandocServerBackend implements PandocBackend {
+
+    private static final Pattern NEEDS_FILE_SYSTEM = Pattern.compile(
+            "^#\\+(?:INCLUDE|SETUPFILE):", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    /**
+     * 启动失败时换端口重试的次数
+     */
+    private static final int START_ATTEMPTS = 3;
+
+    private final String                pandoc;
+    private final PandocBackend         fallback;
+    private final List<Worker>          workers = new ArrayList<>();
+    private final BlockingQueue<Worker> idle    = new LinkedBlockingQueue<>();
+
+    /**
+     * 启动等待、健康检查的超时，毫秒
+     */
+    private int startupTimeout = 10000;
+    private int healthTimeout  = 2000;
+    /**
+     * pandoc-server 单个请求的超时，秒。pandoc-server 默认只有 2 秒。
+     */
+    private int requestTimeout = 60;
+
+    public PandocServerBackend(String pandocPath, int size, PandocBackend fallback)
+    throws IOException {
+        this(pandocPath, size, 60, fallback);
+    }
+
+    /**
+     * @param requestTimeout 单个请求的超时，秒
+     */
+    public PandocServerBackend(String pandocPath, int size, int requestTimeout,
+            PandocBackend fallback) throws IOException {
+        this.pandoc         = pandocPath == null || pandocPath.isEmpty() ? "pandoc" : pandocPath;
+        this.fallback       = fallback;
+        this.requestTimeout = requestTimeout;
+        if (size <= 0) {
+            size = Runtime.getRuntime().availableProcessors();
+        }
+        try {
+            for (int i = 0; i < size; i++) {
+                Worker w = new Worker(i);
+                w.start();
+                workers.add(w);
+                idle.add(w);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String version() {
+        return fallback.version();
+    }
+
+    @Override
+    public String toHtml(SourceBuffer source, String from) throws IOException {
+        String text = source.text(StandardCharsets.UTF_8);
+        if (NEEDS_FILE_SYSTEM.matcher(text).find()) {
+            return fallback.toHtml(source, from);
+        }
+        Worker w = take();
+        try {
+            if (!w.isAlive()) {
+                w.restart();
+            }
+            try {
+                return w.convert(text, from);
+            } catch (PandocErrorException e) {
+                // 文档本身的错误，worker 没问题
+                throw e;
+            } catch (IOException e) {
+                if (w.isHealthy()) {
+                    throw e;
+                }
+                System.err.printf("pandoc-server worker %d is unhealthy, restart it: %s%n", w.id, e);
+                w.restart();
+                return w.convert(text, from);
+            }
+        } finally {
+            idle.add(w);
+        }
+    }
+
+    private Worker take() throws IOException {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.forEach(Worker::stop);
+        workers.clear();
+        idle.clear();
+        fallback.close();
+    }
+
+    static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        if (in == null) {
+            return new byte[0];
+        }
+        try (InputStream is = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[]                buf = new byte[8192];
+            int                   n;
+            while ((n = is.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * pandoc-server 返回的转换错误，不需要重启 worker。
+     */
+    static class PandocErrorException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        PandocErrorException(String message) {
+            super(message);
+        }
+    }
+
+    class Worker {
+
+        final int     id;
+        Process process;
+        int     port;
+
+        Worker(int id) {
+            this.id = id;
+        }
+
+        void start() throws IOException {
+            // 端口是先占用再释放取得的，pandoc-server 监听之前可能被别的进程占用，
+            // 这时 pandoc-server 会退出，换一个端口重试
+            int exitValue = 0;
+            for (int attempt = 0; attempt < START_ATTEMPTS; attempt++) {
+                try (ServerSocket s = new ServerSocket(0)) {
+                    port = s.getLocalPort();
+                }
+                if (launch()) {
+                    System.out.printf("pandoc-server worker %d listening on %d%n", id, port);
+                    return;
+                }
+                exitValue = process.exitValue();
+                System.err.printf("pandoc-server worker %d exited with %d on port %d%n", id, exitValue, port);
+            }
+            throw new IOException("pandoc-server exited with " + exitValue + " after "
+                    + START_ATTEMPTS + " attempts, requires pandoc 3.0+");
+        }
+
+        /**
+         * @return 是否启动成功，false 时进程已退出
+         */
+        private boolean launch() throws IOException {
+            ProcessBuilder builder = new ProcessBuilder(Paths.get(pandoc).toString(),
+                    "server", "--port", String.valueOf(port),
+                    "--timeout", String.valueOf(requestTimeout));
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+
+            long deadline = System.currentTimeMillis() + startupTimeout;
+            while (System.currentTimeMillis() < deadline) {
+                // 健康检查之后再确认一次进程还在，端口上应答的可能是占用端口的别的进程
+                if (isHealthy() && process.isAlive()) {
+                    return true;
+                }
+                if (!process.isAlive()) {
+                    return false;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            stop();
+            throw new IOException("pandoc-server did not start within " + startupTimeout + " ms");
+        }
+
+        void stop() {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+
+        void restart() throws IOException {
+            stop();
+            start();
+        }
+
+        boolean isAlive() {
+            return process != null && process.isAlive();
+        }
+
+        boolean isHealthy() {
+            if (!isAlive()) {
+                return false;
+            }
+            try {
+                HttpURLConnection conn = open("/version");
+                conn.setConnectTimeout(healthTimeout);
+                conn.setReadTimeout(healthTimeout);
+                int code = conn.getResponseCode();
+                readAll(conn.getInputStream());
+                return code == 200;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        String convert(String text, String from) throws IOException {
+            String body = "{\"text\":" + jsonString(text)
+                    + ",\"from\":" + jsonString(from)
+                    + ",\"to\":\"html\"}";
+            HttpURLConnection conn = open("/");
+            conn.setRequestMethod("POST");
+            conn.setReadTimeout((requestTimeout + 5) * 1000);
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            conn.setRequestProperty("Accept", "text/plain");
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            int code = conn.getResponseCode();
+            if (code != 200) {
+                String msg = new String(readAll(conn.getErrorStream()), StandardCharsets.UTF_8);
+                throw new PandocErrorException("pandoc-server returns " + code + ": " + msg);
+            }
+            return new String(readAll(conn.getInputStream()), StandardCharsets.UTF_8);
+        }
+
+        private HttpURLConnection open(String path) throws IOException {
+            URL url = new URL("http", "127.0.0.1", port, path);
+            return (HttpURLConnection) url.openConnection();
+        }
+    }
+}
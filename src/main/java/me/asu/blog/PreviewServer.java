@@ -0,0 +1,166 @@
+package me.asu.blog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 写作时用的预览服务器，直接从 {@link MemoryOutputSink} 提供页面。
+ *
+ * <p>内存中没有的文件按 copyRes 的映射从 src、assets 目录读取，预览模式不复制静态资源。
+ * html 页面注入一段脚本，通过 Server-Sent Events 在重新生成后刷新浏览器。
+ *
+ * @author suk
+ */
+public class PreviewServer {
+
+    static final String RELOAD_PATH   = "/__livereload";
+    static final String RELOAD_SCRIPT = "<script>new EventSource('" + RELOAD_PATH
+            + "').onmessage = function () { location.reload(); };</script>";
+
+    private final MemoryOutputSink   sink;
+    private final Path               outDir;
+    private final List<Path>         fallbackDirs;
+    private final List<OutputStream> clients = new CopyOnWriteArrayList<>();
+    private final HttpServer         server;
+    private final ExecutorService    executor;
+
+    public PreviewServer(MemoryOutputSink sink, Path outDir, List<Path> fallbackDirs, int port)
+    throws IOException {
+        this.sink         = sink;
+        this.outDir       = outDir.toAbsolutePath().normalize();
+        this.fallbackDirs = fallbackDirs;
+        this.server       = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.executor     = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "preview-http");
+            t.setDaemon(true);
+            return t;
+        });
+        server.createContext(RELOAD_PATH, this::subscribe);
+        server.createContext("/", this::serve);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        System.out.printf("Preview server started at http://127.0.0.1:%d/%n",
+                server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * 有页面重新生成时通知浏览器刷新
+     */
+    public void reload(Set<Path> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        byte[] event = ("data: " + changed.size() + "\n\n").getBytes(StandardCharsets.UTF_8);
+        for (OutputStream out : clients) {
+            try {
+                out.write(event);
+                out.flush();
+            } catch (IOException e) {
+                clients.remove(out);
+                close(out);
+            }
+        }
+    }
+
+    private void subscribe(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        // 连接保持打开，reload() 写入事件
+        clients.add(out);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String uri = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+            if (uri.endsWith("/")) {
+                uri += "index.html";
+            }
+            String rel     = uri.replaceFirst("^/+", "");
+            byte[] content = find(rel);
+            if (content == null) {
+                send(exchange, 404, "text/plain", ("Not found: " + uri).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String type = URLConnection.guessContentTypeFromName(rel);
+            if (rel.endsWith(".html") || rel.endsWith(".htm")) {
+                type    = "text/html; charset=utf-8";
+                content = inject(content);
+            } else if (rel.endsWith(".css")) {
+                type = "text/css";
+            } else if (rel.endsWith(".js")) {
+                type = "application/javascript";
+            }
+            send(exchange, 200, type == null ? "application/octet-stream" : type, content);
+        } catch (IOException e) {
+            e.printStackTrace();
+            send(exchange, 500, "text/plain", String.valueOf(e).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private byte[] find(String rel) throws IOException {
+        Path p = outDir.resolve(rel).normalize();
+        if (!p.startsWith(outDir)) {
+            return null;
+        }
+        byte[] content = sink.read(p);
+        if (content != null) {
+            return content;
+        }
+        for (Path dir : fallbackDirs) {
+            Path base = dir.toAbsolutePath().normalize();
+            Path f    = base.resolve(rel).normalize();
+            if (f.startsWith(base) && Files.isRegularFile(f)) {
+                return Files.readAllBytes(f);
+            }
+        }
+        return null;
+    }
+
+    static byte[] inject(byte[] content) {
+        String html = new String(content, StandardCharsets.UTF_8);
+        int    i    = html.lastIndexOf("</body>");
+        html = i < 0 ? html + RELOAD_SCRIPT : html.substring(0, i) + RELOAD_SCRIPT + html.substring(i);
+        return html.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int code, String type, byte[] content)
+    throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(code, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    private static void close(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package me.asu.blog;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * 两级的内容寻址渲染缓存。
+ *
+ * <ul>
+ * <li>body: pandoc 输出的 html 片段，键为源文件内容、源格式、pandoc 版本和参数的哈希；</li>
+ * <li>page: 套用模板后的完整页面，键为 body 的键、页面元数据和模板的哈希。</li>
+ * </ul>
+ * 只改了标签或模板时只需要重新套模板，不需要再调用 pandoc。
+ *
+ * <p>每个页面最近一次用到的两个键记在 refs.bin 中。完整且成功的构建结束后 {@link #sweep}
+ * 删除不再被任何输出页面引用的条目，源文件、标签或模板改过之后的旧页面不会一直留在缓存目录中；
+ * 没有重新生成的页面仍然引用上次的键，它们的条目保留。
+ *
+ * @author suk
+ */
+public class RenderCache {
+
+    private static final int MAGIC          = 0x52454e44; // REND
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path body;
+    private final Path page;
+    private final Path refsFile;
+    /**
+     * 输出页面 -> {body 键, page 键}
+     */
+    private final Map<String, String[]> refs = new ConcurrentHashMap<>();
+    private volatile boolean            dirty;
+
+    private final AtomicInteger bodyHits   = new AtomicInteger();
+    private final AtomicInteger bodyMisses = new AtomicInteger();
+    private final AtomicInteger pageHits   = new AtomicInteger();
+    private final AtomicInteger pageMisses = new AtomicInteger();
+
+    public RenderCache(Path dir) {
+        this.body = dir.resolve("body");
+        this.page = dir.resolve("page");
+        this.refsFile = dir.resolve("refs.bin");
+        loadRefs();
+    }
+
+    /**
+     * @param sourceMd5 源文件内容的 md5
+     */
+    public static String bodyKey(byte[] sourceMd5, String from, String pandocVersion, String options) {
+        String key = Hashes.hex(sourceMd5) + '\0' + from + '\0' + pandocVersion + '\0' + options;
+        return Hashes.hex(Hashes.md5(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static String pageKey(String bodyKey, String metadata, String templateHash) {
+        String key = bodyKey + '\0' + metadata + '\0' + templateHash;
+        return Hashes.hex(Hashes.md5(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public String getBody(String key) {
+        return get(body, key, bodyHits, bodyMisses);
+    }
+
+    public void putBody(String key, String html) {
+        put(body, key, html);
+    }
+
+    public String getPage(String key) {
+        return get(page, key, pageHits, pageMisses);
+    }
+
+    public void putPage(String key, String html) {
+        put(page, key, html);
+    }
+
+    /**
+     * 记下 output 是用这两个键生成的
+     */
+    public void use(Path output, String bodyKey, String pageKey) {
+        String[] keys = {bodyKey, pageKey};
+        String[] prev = refs.put(key(output), keys);
+        if (prev == null || !prev[0].equals(bodyKey) || !prev[1].equals(pageKey)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 完整且成功的构建结束后调用：忘记 live 之外的输出，删除不再被引用的条目。
+     *
+     * @param live 本次构建产生的输出
+     * @return 删除的条目数
+     */
+    public int sweep(Predicate<Path> live) throws IOException {
+        if (refs.keySet().removeIf(p -> !live.test(Paths.get(p)))) {
+            dirty = true;
+        }
+        Set<String> keys = new HashSet<>();
+        for (String[] k : refs.values()) {
+            keys.add(k[0]);
+            keys.add(k[1]);
+        }
+        int removed = sweep(body, keys) + sweep(page, keys);
+        save();
+        return removed;
+    }
+
+    private static int sweep(Path dir, Set<String> keys) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int removed = 0;
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) s.filter(Files::isRegularFile)::iterator) {
+                String name = p.getFileName().toString();
+                // 中断留下的临时文件也删除
+                if (!name.endsWith(".html") || !keys.contains(name.substring(0, name.length() - 5))) {
+                    Files.deleteIfExists(p);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 保存页面引用的键
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Files.createDirectories(refsFile.toAbsolutePath().getParent());
+        Path tmp = refsFile.resolveSibling(refsFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            Map<String, String[]> snapshot = new HashMap<>(refs);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, String[]> e : snapshot.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue()[0]);
+                out.writeUTF(e.getValue()[1]);
+            }
+        }
+        Files.move(tmp, refsFile, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    private void loadRefs() {
+        if (!Files.isRegularFile(refsFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(refsFile), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.out.printf("Render cache references %s are outdated, IGNORED.%n", refsFile);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                refs.put(in.readUTF(), new String[]{in.readUTF(), in.readUTF()});
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not load render cache references %s: %s%n", refsFile, e);
+            refs.clear();
+        }
+    }
+
+    private static String key(Path p) {
+        return p.toAbsolutePath().normalize().toString();
+    }
+
+    public String stats() {
+        return String.format("body %d hits / %d misses, page %d hits / %d misses",
+                bodyHits.get(), bodyMisses.get(), pageHits.get(), pageMisses.get());
+    }
+
+    private String get(Path dir, String key, AtomicInteger hits, AtomicInteger misses) {
+        Path p = path(dir, key);
+        try {
+            if (Files.isRegularFile(p)) {
+                String s = new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+                hits.incrementAndGet();
+                return s;
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not read render cache %s: %s%n", p, e);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void put(Path dir, String key, String html) {
+        Path p = path(dir, key);
+        try {
+            Files.createDirectories(p.getParent());
+            // 先写临时文件再改名，并发写同一个键时不会读到半个文件
+            Path tmp = Files.createTempFile(p.getParent(), key, ".tmp");
+            Files.write(tmp, html.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.printf("Can not write render cache %s: %s%n", p, e);
+        }
+    }
+
+    private static Path path(Path dir, String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".html");
+    }
+}
@@ -34,9 +34,6 @@ public class ReportIndexGenerator {
     public void generate(BlogContext ctx) throws Exception {
         Path index  = ctx.getReprintIndex();
         Path srcDir = ctx.getReprintSrc();
-        if (!Files.isDirectory(index.getParent())) {
-            Files.createDirectories(index.getParent());
-        }
 
         GetSrcFileInfoVisitor visitor = new GetSrcFileInfoVisitor(srcEncoding, "reprint");
         Files.walkFileTree(srcDir, visitor);
@@ -58,7 +55,7 @@ public class ReportIndexGenerator {
 
         String content = generateContent(ctx, fileInfoList);
 
-        Files.write(index, content.getBytes(indexEncoding));
+        ctx.getOutputSink().write(index, content.getBytes(indexEncoding));
     }
 
 
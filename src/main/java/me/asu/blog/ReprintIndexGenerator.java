@@ -1,11 +1,8 @@
 package me.asu.blog;
 
-import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import lombok.Data;
@@ -32,85 +29,57 @@ public class ReprintIndexGenerator {
     }
 
     public void generate(BlogContext ctx) throws Exception {
-        Path index  = ctx.getReprintIndex();
-        Path srcDir = ctx.getReprintSrc();
-        if (!Files.isDirectory(index.getParent())) {
-            Files.createDirectories(index.getParent());
-        }
+        generate(ctx, SiteModel.scan(ctx, srcEncoding));
+    }
 
-        GetSrcFileInfoVisitor visitor = new GetSrcFileInfoVisitor(srcEncoding, "reprint");
-        Files.walkFileTree(srcDir, visitor);
+    public void generate(BlogContext ctx, SiteModel model) throws Exception {
+        Path index = ctx.getReprintIndex();
 
-        List<SrcFileInfo> fileInfoList = visitor.getFileInfoList();
-        fileInfoList.sort((a, b) -> {
-            Date d1 = a.getArticleDate();
-            Date d2 = b.getArticleDate();
-            if (d1 == null) {
-                d1 = new Date();
-                d1.setTime(a.getLastModified());
-            }
-            if (d2 == null) {
-                d2 = new Date();
-                d2.setTime(b.getLastModified());
-            }
-            return d1.compareTo(d2) * (-1);
-        });
-
-        String content = generateContent(ctx, fileInfoList);
+        List<SrcFileInfo> fileInfoList = new ArrayList<>(model.getSection(SiteModel.REPRINT));
+        fileInfoList.sort(SiteModel.NEWEST_FIRST);
 
-        Files.write(index, content.getBytes(indexEncoding));
+        TemplateHelper.render("tmpl.index", model(ctx, fileInfoList), ctx.getOutputSink(), index,
+                indexEncoding);
     }
 
 
-    private String generateContent(BlogContext ctx,
-            List<SrcFileInfo> fileInfoList) throws Exception {
-        Path   srcDir          = ctx.getReprintSrc();
-        String destContextPath = ctx.getReprintContextPath();
-
-        List<Map<String, Object>> list = new ArrayList<>();
-        SimpleDateFormat          sdf  = new SimpleDateFormat("yyyy-MM-dd");
-        if (!fileInfoList.isEmpty()) {
-            for (SrcFileInfo info : fileInfoList) {
-                Path   relativize = srcDir.relativize(info.getPath());
-                String s          = relativize.toString();
-                int    i          = s.lastIndexOf(".");
-                s = s.substring(0, i) + ".html";
-                Path                destPath = Paths.get(destContextPath, s);
-                String              href     = String.format("%s", destPath.toString()
-                                                                           .replace(File.separator, "/"));
-                Map<String, Object> m        = new HashMap<>();
-                m.put("url", href);
-                m.put("title", info.getTitle());
-                m.put("summary", info.getDescription());
-                Date date = info.getArticleDate();
-                if (date == null) {
-                    date = new Date();
-                    date.setTime(info.getLastModified());
-                }
-                m.put("date", sdf.format(date));
-
-                String[] fileTags = info.getFileTags();
-                if (fileTags != null && fileTags.length > 0) {
-                    List<Map<String, Object>> tags = new ArrayList<>();
-                    for (String fileTag : fileTags) {
-                        if (fileTag.isEmpty()) {
-                            continue;
-                        }
-                        Map<String, Object> t = new HashMap<>();
-                        t.put("tag", fileTag);
-                        t.put("tag-lowercase", fileTag.toLowerCase());
-                        tags.add(t);
+    /**
+     * 每行在模板遍历到时才生成。
+     */
+    private Map<String, Object> model(BlogContext ctx, List<SrcFileInfo> fileInfoList) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+        ModelRows<SrcFileInfo> list = new ModelRows<>(fileInfoList, info -> {
+            Map<String, Object> m = new HashMap<>();
+            m.put("url", info.getDestUrl());
+            m.put("title", info.getTitle());
+            m.put("summary", info.getDescription());
+            Date date = info.getArticleDate();
+            if (date == null) {
+                date = new Date();
+                date.setTime(info.getLastModified());
+            }
+            m.put("date", sdf.format(date));
+
+            String[] fileTags = info.getFileTags();
+            if (fileTags != null && fileTags.length > 0) {
+                List<Map<String, Object>> tags = new ArrayList<>();
+                for (String fileTag : fileTags) {
+                    if (fileTag.isEmpty()) {
+                        continue;
                     }
-                    m.put("tags", tags);
+                    Map<String, Object> t = new HashMap<>();
+                    t.put("tag", fileTag);
+                    t.put("tag-lowercase", fileTag.toLowerCase());
+                    tags.add(t);
                 }
-                list.add(m);
+                m.put("tags", tags);
             }
-        }
-        Map value = new HashMap();
+            return m;
+        });
+        Map<String, Object> value = new HashMap<>();
         value.put("global_public_url", ctx.getBaseUrl());
         value.put("list", list);
-
-        return TemplateHelper.parse("tmpl.index", value);
+        return value;
     }
 
 }
@@ -0,0 +1,225 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import me.asu.shell.ExitCodeException;
+
+/**
+ * 包装其它后端：超时和启动失败时退避重试，转换时间超过最近的 p99 时可以再启动一个相同的转换
+ * （hedging），取先完成的结果。
+ *
+ * <p>pandoc 报告的文档错误（退出码非 0）重试也没用，直接抛出。超时的文件记下来，构建结束时由
+ * {@link #drainReport()} 输出。
+ *
+ * @author suk
+ */
+public class ResilientPandocBackend implements PandocBackend {
+
+    /**
+     * 记录最近多少次成功转换的耗时
+     */
+    static final int WINDOW      = 256;
+    /**
+     * 样本少于这个数时不 hedge
+     */
+    static final int MIN_SAMPLES = 20;
+
+    private final PandocBackend   delegate;
+    private final int             retries;
+    private final long            backoff;
+    private final boolean         hedge;
+    private final ExecutorService hedgePool;
+
+    private final long[]        durations = new long[WINDOW];
+    private       int           samples;
+    private final AtomicInteger hedged    = new AtomicInteger();
+    private final AtomicInteger hedgeWins = new AtomicInteger();
+    /**
+     * 超时的文件和超时次数，值为负数表示重试后仍然失败
+     */
+    private final Map<Path, Integer> timedOut = new ConcurrentHashMap<>();
+
+    /**
+     * @param retries 超时或启动失败后的重试次数
+     * @param backoff 第一次重试前等待的毫秒数，之后每次加倍
+     * @param hedge   是否在超过 p99 时启动第二个转换
+     */
+    public ResilientPandocBackend(PandocBackend delegate, int retries, long backoff, boolean hedge) {
+        this.delegate  = delegate;
+        this.retries   = Math.max(0, retries);
+        this.backoff   = Math.max(0, backoff);
+        this.hedge     = hedge;
+        this.hedgePool = hedge ? Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "pandoc-hedge");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    @Override
+    public String toHtml(SourceBuffer source, String from) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return hedge ? hedged(source, from) : timed(source, from);
+            } catch (ExitCodeException | PandocServerBackend.PandocErrorException e) {
+                // 文档本身的错误
+                throw e;
+            } catch (ConversionTimeoutException e) {
+                timedOut.merge(source.path(), 1, (a, b) -> a < 0 ? a - b : a + b);
+                if (attempt >= retries) {
+                    timedOut.computeIfPresent(source.path(), (k, v) -> -Math.abs(v));
+                    throw e;
+                }
+                System.err.printf("%s, retry %d/%d%n", e.getMessage(), attempt + 1, retries);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                System.err.printf("Conversion of %s failed, retry %d/%d: %s%n", source.path(),
+                        attempt + 1, retries, e);
+            }
+            sleep(backoff << Math.min(attempt, 16));
+        }
+    }
+
+    /**
+     * 主转换在 hedgePool 中执行，超过 p99 还没完成时再提交一个，取先成功的结果，
+     * 另一个由超时兜底结束。
+     */
+    private String hedged(SourceBuffer source, String from) throws IOException {
+        long p99 = p99();
+        if (p99 <= 0) {
+            return timed(source, from);
+        }
+        CompletionService<String> cs      = new ExecutorCompletionService<>(hedgePool);
+        List<Future<String>>      futures = new ArrayList<>(2);
+        futures.add(cs.submit(() -> timed(source, from)));
+        try {
+            Future<String> done = cs.poll(p99, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                System.out.printf("%s is slower than p99 (%d ms), start a hedged conversion%n",
+                        source.path(), p99);
+                hedged.incrementAndGet();
+                futures.add(cs.submit(() -> timed(source, from)));
+            }
+            IOException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<String> f = i == 0 && done != null ? done : cs.take();
+                try {
+                    String html = f.get();
+                    if (f != futures.get(0)) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    return html;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(source.path() + ": interrupted");
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private String timed(SourceBuffer source, String from) throws IOException {
+        long   start = System.nanoTime();
+        String html  = delegate.toHtml(source, from);
+        record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return html;
+    }
+
+    private synchronized void record(long millis) {
+        durations[samples % WINDOW] = millis;
+        samples++;
+    }
+
+    /**
+     * @return 最近成功转换耗时的 p99，样本不够时返回 -1
+     */
+    synchronized long p99() {
+        int n = Math.min(samples, WINDOW);
+        if (n < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(durations, n);
+        Arrays.sort(sorted);
+        return Math.max(1, sorted[(int) Math.ceil(n * 0.99) - 1]);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            // 加一点抖动，并发的重试不要同时开始
+            Thread.sleep(millis + ThreadLocalRandom.current().nextLong(millis / 4 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * 输出并清空本次构建超时的文件。
+     *
+     * @return 重试后仍然超时的文件数
+     */
+    public int drainReport() {
+        int failed = 0;
+        if (!timedOut.isEmpty()) {
+            System.out.printf("%d documents timed out:%n", timedOut.size());
+            for (Path p : new TreeSet<>(timedOut.keySet())) {
+                int n = timedOut.remove(p);
+                if (n < 0) {
+                    failed++;
+                }
+                System.out.printf("  %s: %d timeouts, %s%n", p, Math.abs(n),
+                        n < 0 ? "FAILED" : "recovered by retry");
+            }
+        }
+        if (hedge && hedged.get() > 0) {
+            System.out.printf("Hedged conversions: %d, won by the hedge: %d%n",
+                    hedged.getAndSet(0), hedgeWins.getAndSet(0));
+        }
+        return failed;
+    }
+
+    @Override
+    public List<String> toHtml(List<SourceBuffer> inputs, String from) throws IOException {
+        // 合并转换失败时调用方会逐个转换，由 toHtml(SourceBuffer, String) 重试
+        return delegate.toHtml(inputs, from);
+    }
+
+    @Override
+    public String version() {
+        return delegate.version();
+    }
+
+    @Override
+    public int batchSize() {
+        return delegate.batchSize();
+    }
+
+    @Override
+    public long batchMaxBytes() {
+        return delegate.batchMaxBytes();
+    }
+
+    @Override
+    public void close() {
+        if (hedgePool != null) {
+            hedgePool.shutdownNow();
+        }
+        delegate.close();
+    }
+}
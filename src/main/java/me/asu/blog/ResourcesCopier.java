@@ -1,80 +1,312 @@
 package me.asu.blog;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashSet;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * 复制静态资源。
+ *
+ * <p>要复制的文件由 {@link StaticAssetPlan} 给出，是否需要复制由 {@link AssetManifest} 判断，
+ * 没变的文件只 stat 源文件和目标文件，不读内容。
+ * 需要复制的文件在线程池中并行复制，用 {@link FileChannel#transferTo} 写到临时文件再替换目标文件；
+ * {@link Mode#LINK} 模式下创建硬链接，源目录和输出目录不在同一个文件系统时退回复制。
+ *
  * @author suk
  */
 public class ResourcesCopier {
 
+    public enum Mode {
+        COPY, LINK
+    }
+
+    private final AssetManifest   manifest;
+    private final ExecutorService pool;
+    private       Mode            mode = Mode.COPY;
+    private       OutputDelta     delta;
+
+    private final AtomicBoolean linkUnsupported = new AtomicBoolean();
+    private final AtomicInteger copied          = new AtomicInteger();
+    private final AtomicInteger unchanged       = new AtomicInteger();
+    private final AtomicInteger deduplicated    = new AtomicInteger();
+
+    public ResourcesCopier() {
+        this(new AssetManifest(null), null);
+    }
+
+    /**
+     * @param pool 并行复制的线程池，为 null 时在当前线程复制
+     */
+    public ResourcesCopier(AssetManifest manifest, ExecutorService pool) {
+        this.manifest = manifest;
+        this.pool     = pool;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * 登记复制或链接的目标文件，为 null 时不登记
+     */
+    public void setDelta(OutputDelta delta) {
+        this.delta = delta;
+    }
+
     public void copy(Path inputDir, Path outDir, String baseExtension)
     throws Exception {
         if (!Files.isDirectory(outDir)) {
             Files.createDirectories(outDir);
         }
-        if (baseExtension == null) {
-            baseExtension = "";
+        StaticAssetPlan plan = new StaticAssetPlan();
+        plan.addDir(inputDir, outDir, baseExtension == null ? "" : baseExtension);
+        copy(plan);
+    }
+
+    /**
+     * 执行复制计划。没变的文件只 stat；变了的文件并行计算哈希，内容相同的只复制一份，
+     * 其余的目标文件硬链接到这一份（link 模式下各自链接到源文件，本来就不占空间）。
+     */
+    public void copy(StaticAssetPlan plan) throws Exception {
+        Map<Long, Path> stored  = new HashMap<>();
+        List<Item>      changed = new ArrayList<>();
+        for (Map.Entry<Path, Path> e : plan.entries().entrySet()) {
+            Path                dest  = e.getKey();
+            Path                file  = e.getValue();
+            BasicFileAttributes attrs = stat(file);
+            if (attrs == null || !attrs.isRegularFile()) {
+                continue;
+            }
+            if (isUnchanged(file, attrs, dest)) {
+                unchanged.incrementAndGet();
+                stored.putIfAbsent(manifest.get(dest).hash, dest);
+            } else {
+                changed.add(new Item(file, attrs, dest));
+            }
+        }
+
+        // 流式哈希，每个文件读一遍
+        List<Future<?>> tasks = new ArrayList<>();
+        for (Item item : changed) {
+            tasks.add(submit(() -> {
+                try {
+                    item.hash = Hashes.xxh64(item.file);
+                } catch (IOException e) {
+                    System.err.printf("Failed to read %s: %s%n", item.file, e);
+                    item.failed = true;
+                }
+            }));
+        }
+        await(tasks);
+
+        Map<Long, List<Item>> byHash = new LinkedHashMap<>();
+        for (Item item : changed) {
+            if (item.failed) {
+                manifest.remove(item.dest);
+            } else {
+                byHash.computeIfAbsent(mode == Mode.LINK ? null : item.hash, k -> new ArrayList<>())
+                      .add(item);
+            }
         }
-        String[]        split       = baseExtension.trim()
-                                                   .toLowerCase()
-                                                   .split("\\|");
-        HashSet<String> extendsions = new HashSet<>();
-        for (String s : split) {
-            if (s != null && !s.trim().isEmpty()) {
-                extendsions.add(s);
+        for (Map.Entry<Long, List<Item>> group : byHash.entrySet()) {
+            if (group.getKey() == null) {
+                group.getValue().forEach(item -> tasks.add(submit(() -> update(item, null))));
+                continue;
             }
+            Path existing = stored.get(group.getKey());
+            tasks.add(submit(() -> {
+                Path copy = existing;
+                for (Item item : group.getValue()) {
+                    if (update(item, copy) && copy == null) {
+                        copy = item.dest;
+                    }
+                }
+            }));
         }
+        await(tasks);
+        System.out.printf("Static resources: %d planned, %d copied, %d linked to identical content, "
+                        + "%d unchanged, %d overridden.%n", plan.size(), copied.getAndSet(0),
+                deduplicated.getAndSet(0), unchanged.getAndSet(0), plan.overridden());
+    }
 
-        Files.walkFileTree(inputDir, new SimpleFileVisitor<Path>() {
+    private Future<?> submit(Runnable task) {
+        if (pool == null) {
+            FutureTask<?> f = new FutureTask<>(task, null);
+            f.run();
+            return f;
+        }
+        return pool.submit(task);
+    }
 
+    private static void await(List<Future<?>> tasks) throws Exception {
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        tasks.clear();
+    }
 
-            @Override
-            public FileVisitResult visitFile(Path file,
-                    BasicFileAttributes attrs) {
-                try {
+    /**
+     * 两边的大小和修改时间都和清单一致
+     */
+    private boolean isUnchanged(Path file, BasicFileAttributes attrs, Path dest) {
+        AssetManifest.Entry e = manifest.get(dest);
+        if (e == null || !e.source.equals(AssetManifest.key(file)) || e.srcSize != attrs.size()
+                || e.srcMtime != attrs.lastModifiedTime().toMillis()) {
+            return false;
+        }
+        BasicFileAttributes d = stat(dest);
+        return d != null && d.size() == e.destSize && d.lastModifiedTime().toMillis() == e.destMtime;
+    }
 
-                    String f = file.toString();
-                    int    i = f.lastIndexOf('.');
-                    if (i == -1) {
-                        return FileVisitResult.CONTINUE;
-                    }
-                    String ext = f.substring(i + 1).toLowerCase();
-                    if (extendsions.contains(ext)) {
-                        Path relativize = inputDir.relativize(file);
-                        Path dest       = Paths.get(outDir.toString(), relativize
-                                .toString());
-                        Path parent     = dest.getParent();
-                        if (!Files.isDirectory(parent)) {
-                            Files.createDirectories(parent);
-                        }
-                        if (diff(file, dest)) {
-                            System.out.printf("Copying: %s -> %s%n", file, dest);
-                            Files.copy(file, dest, REPLACE_EXISTING);
-                        } else {
-                            System.out.printf("%s and %s is the same, IGNORED.%n", file, dest);
-                        }
-                    }
+    /**
+     * @param existing 已有相同内容的目标文件，为 null 时复制源文件
+     * @return 目标文件是否已经是源文件的内容
+     */
+    private boolean update(Item item, Path existing) {
+        Path                file  = item.file;
+        Path                dest  = item.dest;
+        BasicFileAttributes attrs = item.attrs;
+        long                hash  = item.hash;
+        try {
+            AssetManifest.Entry e = manifest.get(dest);
+            BasicFileAttributes d = stat(dest);
+            boolean existed = d != null;
+            boolean same = d != null && d.size() == attrs.size() && (e != null
+                    ? e.hash == hash && e.destSize == d.size()
+                    && e.destMtime == d.lastModifiedTime().toMillis()
+                    // 没有记录时比较一次目标文件的内容
+                    : Hashes.xxh64(dest) == hash);
+            if (same) {
+                System.out.printf("%s and %s is the same, IGNORED.%n", file, dest);
+                unchanged.incrementAndGet();
+            } else if (existing != null && link(existing, attrs.size(), dest)) {
+                System.out.printf("Linking: %s -> %s (same content as %s)%n", file, dest, existing);
+                deduplicated.incrementAndGet();
+                d = stat(dest);
+                written(dest, existed, hash);
+            } else {
+                System.out.printf("Copying: %s -> %s%n", file, dest);
+                write(file, attrs, dest);
+                copied.incrementAndGet();
+                d = stat(dest);
+                written(dest, existed, hash);
+            }
+            if (d != null) {
+                AssetManifest.Entry n = new AssetManifest.Entry();
+                n.source    = AssetManifest.key(file);
+                n.srcSize   = attrs.size();
+                n.srcMtime  = attrs.lastModifiedTime().toMillis();
+                n.destSize  = d.size();
+                n.destMtime = d.lastModifiedTime().toMillis();
+                n.hash      = hash;
+                manifest.put(dest, n);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.printf("Failed to copy %s: %s%n", file, e);
+            manifest.remove(dest);
+            return false;
+        }
+    }
+
+    private void written(Path dest, boolean existed, long hash) {
+        if (delta != null) {
+            delta.written(dest, existed, hash);
+        }
+    }
+
+    private boolean link(Path existing, long size, Path dest) {
+        try {
+            if (Files.size(existing) != size) {
+                // 哈希碰撞
+                return false;
+            }
+            Files.createDirectories(dest.getParent());
+            Files.deleteIfExists(dest);
+            Files.createLink(dest, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
+    private void write(Path file, BasicFileAttributes attrs, Path dest) throws IOException {
+        Files.createDirectories(dest.getParent());
+        if (mode == Mode.LINK && !linkUnsupported.get()) {
+            try {
+                Files.deleteIfExists(dest);
+                Files.createLink(dest, file);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                if (linkUnsupported.compareAndSet(false, true)) {
+                    System.err.printf("Can not create hard link %s, copy files instead: %s%n", dest, e);
                 }
+            }
+        }
+        transfer(file, dest);
+        Files.setLastModifiedTime(dest, FileTime.fromMillis(attrs.lastModifiedTime().toMillis()));
+    }
 
-                return FileVisitResult.CONTINUE;
+    /**
+     * 写到同目录的临时文件再替换，中断时不会留下不完整的目标文件。
+     */
+    static void transfer(Path file, Path dest) throws IOException {
+        Path tmp = dest.resolveSibling("." + dest.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long pos  = 0;
+            while (pos < size) {
+                long n = in.transferTo(pos, size - pos, out);
+                if (n <= 0) {
+                    // 源文件变短了
+                    break;
+                }
+                pos += n;
             }
+        }
+        try {
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
+    private static class Item {
 
-        });
+        final Path                file;
+        final BasicFileAttributes attrs;
+        final Path                dest;
+        long                      hash;
+        boolean                   failed;
+
+        Item(Path file, BasicFileAttributes attrs, Path dest) {
+            this.file  = file;
+            this.attrs = attrs;
+            this.dest  = dest;
+        }
+    }
+
+    private static BasicFileAttributes stat(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     public static boolean diff(Path file, Path dest)
-    throws IOException, NoSuchAlgorithmException {
+    throws IOException {
         if (!Files.isRegularFile(dest)) {
             return true;
         }
@@ -93,18 +325,12 @@ public class ResourcesCopier {
         return false;
     }
 
+    /**
+     * 流式比较内容的哈希，不把文件读入内存
+     */
     public static boolean checkDigest(Path file, Path dest)
-    throws NoSuchAlgorithmException, IOException {
-        MessageDigest md5 = MessageDigest.getInstance("md5");
-        byte[]        d1  = md5.digest(Files.readAllBytes(file));
-        md5.reset();
-        byte[] d2 = md5.digest(Files.readAllBytes(dest));
-        for (int i = 0; i < d1.length; i++) {
-            if (d1[i] != d2[i]) {
-                return true;
-            }
-        }
-        return false;
+    throws IOException {
+        return Hashes.xxh64(file) != Hashes.xxh64(dest);
     }
 
 
@@ -0,0 +1,103 @@
+package me.asu.blog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 全站源文件的元数据，扫描一次，由各个索引生成器共享。
+ *
+ * @author suk
+ */
+public class SiteModel {
+
+    public static final String POSTS   = "posts";
+    public static final String WIKI    = "wiki";
+    public static final String REPRINT = "reprint";
+
+    /**
+     * 按文章日期倒序，没有日期的使用文件修改时间。
+     */
+    public static final Comparator<SrcFileInfo> NEWEST_FIRST = (a, b) -> {
+        Date d1 = a.getArticleDate();
+        if (d1 == null) {
+            d1 = new Date(a.getLastModified());
+        }
+        Date d2 = b.getArticleDate();
+        if (d2 == null) {
+            d2 = new Date(b.getLastModified());
+        }
+        return d2.compareTo(d1);
+    };
+
+    private final Map<String, List<SrcFileInfo>> sections = new LinkedHashMap<>();
+
+    public static SiteModel scan(BlogContext ctx) throws IOException {
+        return scan(ctx, StandardCharsets.UTF_8);
+    }
+
+    public static SiteModel scan(BlogContext ctx, Charset srcEncoding) throws IOException {
+        MetaCache cache = null;
+        if (ctx.getCacheDir() != null) {
+            cache = MetaCache.load(ctx.getCacheDir().resolve("meta.bin"),
+                    GetSrcFileInfoVisitor.PARSER_VERSION);
+        }
+        SiteModel model = new SiteModel();
+        SourceScanner scanner = ctx.getScanner();
+        model.scanSection(scanner, POSTS, ctx.getPostSrc(), ctx.getPostContextPath(), srcEncoding, cache);
+        model.scanSection(scanner, WIKI, ctx.getWikiSrc(), ctx.getWikiContextPath(), srcEncoding, cache);
+        model.scanSection(scanner, REPRINT, ctx.getReprintSrc(), ctx.getReprintContextPath(), srcEncoding,
+                cache);
+        if (cache != null) {
+            System.out.printf("Metadata cache: %d hits, %d misses%n", cache.getHits(), cache.getMisses());
+            cache.save();
+        }
+        return model;
+    }
+
+    private void scanSection(SourceScanner scanner,
+            String name,
+            Path srcDir,
+            String contextPath,
+            Charset srcEncoding,
+            MetaCache cache) throws IOException {
+        List<SrcFileInfo> list = new ArrayList<>();
+        if (srcDir != null && Files.isDirectory(srcDir)) {
+            GetSrcFileInfoVisitor visitor = new GetSrcFileInfoVisitor(srcEncoding, name, cache);
+            for (SourceScanner.Entry e : scanner.scan(srcDir)) {
+                if (e.getKind() != SourceScanner.Kind.ASSET) {
+                    visitor.visitFile(e.getPath(), e.getAttrs());
+                }
+            }
+            list = visitor.getFileInfoList();
+            for (SrcFileInfo info : list) {
+                info.setProject(name);
+                info.setDestUrl(destUrl(srcDir, contextPath, info.getPath()));
+            }
+        }
+        sections.put(name, Collections.unmodifiableList(list));
+    }
+
+    static String destUrl(Path srcDir, String contextPath, Path file) {
+        Path   relativize = srcDir.relativize(file);
+        String s          = relativize.toString();
+        int    i          = s.lastIndexOf(".");
+        s = s.substring(0, i) + ".html";
+        Path destPath = Paths.get(contextPath, s);
+        return destPath.toString().replace(File.separator, "/");
+    }
+
+    /**
+     * @param name {@link #POSTS}, {@link #WIKI} 或 {@link #REPRINT}
+     * @return 该栏目的文件，不可修改，需要排序时先复制一份
+     */
+    public List<SrcFileInfo> getSection(String name) {
+        List<SrcFileInfo> list = sections.get(name);
+        return list == null ? Collections.emptyList() : list;
+    }
+}
@@ -0,0 +1,127 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 源文件内容，读一次，供哈希、元数据提取和 pandoc 共用。
+ *
+ * <p>只需要文件头的场合用 {@link #readPrefix(Path, int)} 只读开头一段。
+ * 内容总是读到堆上，不用内存映射：映射要等 GC 才释放，Windows 上期间无法保存源文件。
+ *
+ * @author suk
+ */
+public final class SourceBuffer {
+
+    /**
+     * 文件头最多读取的字节数
+     */
+    public static final int HEADER_PREFIX = 64 * 1024;
+
+    private final Path       path;
+    private final ByteBuffer data;
+    private final boolean    complete;
+
+    private SourceBuffer(Path path, ByteBuffer data, boolean complete) {
+        this.path     = path;
+        this.data     = data;
+        this.complete = complete;
+    }
+
+    public static SourceBuffer read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException(path + " is too large: " + size + " bytes");
+            }
+            return new SourceBuffer(path, readFully(ch, (int) size), true);
+        }
+    }
+
+    /**
+     * 只读开头最多 max 个字节
+     */
+    public static SourceBuffer readPrefix(Path path, int max) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            return new SourceBuffer(path, readFully(ch, (int) Math.min(size, max)), size <= max);
+        }
+    }
+
+    /**
+     * 内存中的内容，path 用于确定相对路径和工作目录。
+     */
+    public static SourceBuffer wrap(Path path, byte[] content) {
+        return new SourceBuffer(path, ByteBuffer.wrap(content), true);
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, int size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        while (buf.hasRemaining() && ch.read(buf) >= 0) {
+            // 读满为止，文件变短时提前结束
+        }
+        buf.flip();
+        return buf;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int size() {
+        return data.limit();
+    }
+
+    /**
+     * @return 是否是整个文件，readPrefix 截断时为 false
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * 只读视图，每次调用返回新的位置，可以并发使用。
+     */
+    public ByteBuffer buffer() {
+        return data.asReadOnlyBuffer();
+    }
+
+    public byte[] bytes() {
+        return prefix(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 开头最多 max 个字节
+     */
+    public byte[] prefix(int max) {
+        ByteBuffer b = buffer();
+        if (data.hasArray() && data.arrayOffset() == 0 && b.limit() <= max
+                && data.array().length == b.limit()) {
+            return data.array();
+        }
+        byte[] bytes = new byte[Math.min(b.limit(), max)];
+        b.get(bytes);
+        return bytes;
+    }
+
+    public byte[] md5() {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("md5");
+            md5.update(buffer());
+            return md5.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // 每个 JRE 都必须支持 md5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String text(Charset charset) {
+        return charset.decode(buffer()).toString();
+    }
+}
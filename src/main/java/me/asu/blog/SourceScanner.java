@@ -0,0 +1,593 @@
+package me.asu.blog;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 并行遍历源文件目录。
+ *
+ * <p>每个目录的列出和 stat 是一个 ForkJoin 任务，子目录分给其它线程，网络文件系统上可以同时等待多个目录。
+ * 每个目录的修改时间和列表都记录下来（配置了 cache.dir 时保存到磁盘），再次遍历时修改时间没变的目录
+ * 不再列出，只 stat 子目录和 org、md、html 文件；增加、删除、改名文件都会改变所在目录的修改时间。
+ * 原地修改文件内容不改变目录的修改时间，所以这些文件总是重新 stat，元数据缓存能看到修改；
+ * 静态资源用记录中的属性，可能是旧的，复制时由 {@link ResourcesCopier} 自己比较。
+ * --watch 模式下由 {@link #invalidate} 丢弃有变化的目录的记录，{@link #setVerify} 完整检查一次。
+ * 排除的目录在进入之前就跳过，不列出其中的文件。排除规则有两部分：
+ * <ul>
+ * <li>{@link #DEFAULT_EXCLUDES}：版本库、node_modules、ltximg 缓存和编辑器的备份文件；</li>
+ * <li>任一目录下的 {@code .blogignore}：每行一个 glob，# 开头为注释，作用于该目录的整个子树。
+ * 以 / 结尾的只匹配目录；含 / 的相对于 .blogignore 所在目录匹配路径，否则匹配文件名；
+ * 以 # 开头的文件名写成 \#。不支持 ! 取反。</li>
+ * </ul>
+ * 文件按扩展名分类一次，结果按路径排序。和 {@link Files#walkFileTree} 一样不跟随符号链接。
+ *
+ * @author suk
+ */
+public class SourceScanner {
+
+    public static final String       IGNORE_FILE      = ".blogignore";
+    public static final List<String> DEFAULT_EXCLUDES = Collections.unmodifiableList(Arrays.asList(
+            ".git/", ".svn/", ".hg/", "node_modules/", "ltximg/", ".idea/", ".vscode/",
+            "*~", "\\#*#", ".#*", "*.swp", "*.bak", ".DS_Store", IGNORE_FILE));
+
+    public enum Kind {
+        ORG, MD, HTML, ASSET;
+
+        public static Kind of(Path file) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".org")) {
+                return ORG;
+            } else if (name.endsWith(".md")) {
+                return MD;
+            } else if (name.endsWith(".html") || name.endsWith(".htm")) {
+                return HTML;
+            }
+            return ASSET;
+        }
+
+        /**
+         * @return 是否由 pandoc 转换成页面
+         */
+        public boolean isMarkup() {
+            return this == ORG || this == MD;
+        }
+    }
+
+    public static class Entry {
+
+        final Path                path;
+        final BasicFileAttributes attrs;
+        final Kind                kind;
+
+        Entry(Path path, BasicFileAttributes attrs, Kind kind) {
+            this.path  = path;
+            this.attrs = attrs;
+            this.kind  = kind;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public BasicFileAttributes getAttrs() {
+            return attrs;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+    }
+
+    private static final Rules DEFAULT_RULES = new Rules(null, null, DEFAULT_EXCLUDES);
+
+    private static int          parallelism;
+    private static ForkJoinPool pool;
+
+    /**
+     * 在第一次遍历之前调用。
+     *
+     * @param threads 遍历线程数，0 表示每个 CPU 2 个线程；列目录主要是等待 I/O
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (pool != null) {
+            System.err.println("Source scanner is already started, configuration IGNORED.");
+            return;
+        }
+        parallelism = threads;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            int n = parallelism > 0 ? parallelism
+                    : Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+            pool = new ForkJoinPool(n, p -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("source-scan-" + t.getPoolIndex());
+                t.setDaemon(true);
+                return t;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    private static final int MAGIC          = 0x5343414e; // SCAN
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * 列出之前这么久之内修改过的目录不复用，修改时间精度低的文件系统上，
+     * 同一时间单位内的后续修改不会改变目录的修改时间
+     */
+    private static final long RACY_MILLIS   = 2000;
+
+    private final Path                  file;
+    private final Map<String, DirState> dirs = new ConcurrentHashMap<>();
+    private final Map<String, DirState> seen = new ConcurrentHashMap<>();
+    private volatile boolean            verify;
+    private volatile boolean            dirty;
+
+    private final AtomicInteger listed = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    public SourceScanner() {
+        this(null);
+    }
+
+    /**
+     * @param file 目录记录的保存位置，为 null 时只在内存中
+     */
+    public SourceScanner(Path file) {
+        this.file = file;
+    }
+
+    public static SourceScanner load(Path file) {
+        SourceScanner scanner = new SourceScanner(file);
+        if (file == null || !Files.isRegularFile(file)) {
+            return scanner;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                System.out.printf("Scan cache %s is outdated, IGNORED.%n", file);
+                return scanner;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String      dir      = in.readUTF();
+                long        mtime    = in.readLong();
+                long        listedAt = in.readLong();
+                int         n        = in.readInt();
+                List<Child> children = new ArrayList<>(n);
+                for (int j = 0; j < n; j++) {
+                    String name  = in.readUTF();
+                    int    flags = in.readByte();
+                    children.add(new Child(name,
+                            new CachedAttributes(flags, in.readLong(), in.readLong())));
+                }
+                scanner.dirs.put(dir, new DirState(mtime, listedAt, children));
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not load scan cache %s: %s%n", file, e);
+            scanner.dirs.clear();
+        }
+        return scanner;
+    }
+
+    /**
+     * 保存本进程中遍历过的目录
+     */
+    public void save() throws IOException {
+        if (!dirty || file == null) {
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp), 65536))) {
+            Map<String, DirState> snapshot = new HashMap<>(seen);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, DirState> e : snapshot.entrySet()) {
+                DirState d = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(d.mtime);
+                out.writeLong(d.listedAt);
+                out.writeInt(d.children.size());
+                for (Child c : d.children) {
+                    out.writeUTF(c.name);
+                    out.writeByte(c.attrs.flags);
+                    out.writeLong(c.attrs.size);
+                    out.writeLong(c.attrs.mtime);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    /**
+     * @param verify 为 true 时不复用上次的记录，重新列出并 stat 所有文件
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * 这些路径有变化（--watch 模式下由 {@link SourceWatcher} 报告），丢弃它们和上级目录的记录。
+     * 原地修改文件内容不改变目录的修改时间，只能这样告诉扫描器。
+     */
+    public void invalidate(Collection<Path> paths) {
+        for (Path p : paths) {
+            Path abs = p.toAbsolutePath().normalize();
+            dirs.remove(abs.toString());
+            if (abs.getParent() != null) {
+                dirs.remove(abs.getParent().toString());
+            }
+        }
+    }
+
+    /**
+     * @return 上次调用之后重新列出和直接复用记录的目录数
+     */
+    public String drainStats() {
+        return String.format("%d directories listed, %d reused", listed.getAndSet(0),
+                reused.getAndSet(0));
+    }
+
+    /**
+     * 按遍历时同样的规则判断 root 下的 path 是否被排除：默认排除规则，以及 root 到 path 之间
+     * 各级目录的 .blogignore。供 {@link SourceWatcher} 跳过不需要监视的目录和变化。
+     */
+    public static boolean isExcluded(Path root, Path path) {
+        Path base = root.toAbsolutePath().normalize();
+        Path p    = path.toAbsolutePath().normalize();
+        if (!p.startsWith(base) || p.equals(base)) {
+            return false;
+        }
+        Rules rules = DEFAULT_RULES;
+        Path  dir   = base;
+        for (Path name : base.relativize(p)) {
+            Path ignore = dir.resolve(IGNORE_FILE);
+            if (Files.isRegularFile(ignore, LinkOption.NOFOLLOW_LINKS)) {
+                rules = Rules.load(dir, ignore, rules);
+            }
+            Path child = dir.resolve(name);
+            // 上级目录一定是目录；已经删除的按文件判断
+            boolean isDir = !child.equals(p) || Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+            if (rules.excludes(child, isDir)) {
+                return true;
+            }
+            dir = child;
+        }
+        return false;
+    }
+
+    public List<Entry> scan(Path root) throws IOException {
+        return scan(root, dir -> false);
+    }
+
+    /**
+     * @param prune 额外跳过的目录，和排除规则一样在进入之前判断
+     * @return root 下没有被排除的文件，按路径排序；root 不是目录时为空
+     */
+    public List<Entry> scan(Path root, Predicate<Path> prune) throws IOException {
+        if (root == null || !Files.isDirectory(root)) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = pool().invoke(new ScanTask(root, -1, DEFAULT_RULES, prune, true));
+        if (result == null) {
+            throw new IOException("Can not list " + root);
+        }
+        result.sort(Comparator.comparing(e -> e.path));
+        return result;
+    }
+
+    /**
+     * @return 目录的修改时间没变时上次的记录，否则为 null
+     */
+    private DirState reusable(String key, long mtime) {
+        DirState s = dirs.get(key);
+        if (verify || s == null || s.mtime != mtime || mtime >= s.listedAt - RACY_MILLIS) {
+            return null;
+        }
+        reused.incrementAndGet();
+        seen.put(key, s);
+        return s;
+    }
+
+    /**
+     * 列出目录并 stat 其中的每一项
+     */
+    private DirState list(Path dir, String key, long mtime) {
+        long        listedAt = System.currentTimeMillis();
+        List<Child> children = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    children.add(new Child(p.getFileName().toString(), CachedAttributes.of(attrs)));
+                } catch (IOException e) {
+                    System.err.printf("Can not read attributes of %s: %s%n", p, e);
+                }
+            }
+        } catch (IOException e) {
+            System.err.printf("Can not list %s: %s%n", dir, e);
+            dirs.remove(key);
+            return null;
+        }
+        DirState s = new DirState(mtime, listedAt, children);
+        dirs.put(key, s);
+        seen.put(key, s);
+        dirty = true;
+        listed.incrementAndGet();
+        return s;
+    }
+
+    private class ScanTask extends RecursiveTask<List<Entry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        final Path            dir;
+        /**
+         * 目录的修改时间，未知时为 -1
+         */
+        final long            mtime;
+        final Rules           rules;
+        final Predicate<Path> prune;
+        final boolean         root;
+
+        ScanTask(Path dir, long mtime, Rules rules, Predicate<Path> prune, boolean root) {
+            this.dir   = dir;
+            this.mtime = mtime;
+            this.rules = rules;
+            this.prune = prune;
+            this.root  = root;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            long m = mtime;
+            if (m < 0) {
+                try {
+                    m = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS).toMillis();
+                } catch (IOException e) {
+                    // 上次还在的目录已经删除
+                    return root ? null : Collections.emptyList();
+                }
+            }
+            String   key    = dir.toAbsolutePath().normalize().toString();
+            DirState state  = reusable(key, m);
+            boolean  cached = state != null;
+            if (state == null) {
+                state = list(dir, key, m);
+                if (state == null) {
+                    return root ? null : Collections.emptyList();
+                }
+            }
+            List<Child> children = state.children;
+            Rules r = rules;
+            for (Child c : children) {
+                if (c.name.equals(IGNORE_FILE)) {
+                    r = Rules.load(dir, dir.resolve(IGNORE_FILE), rules);
+                    break;
+                }
+            }
+
+            List<Entry>    files = new ArrayList<>();
+            List<ScanTask> subs  = new ArrayList<>();
+            for (Child c : children) {
+                Path    p     = dir.resolve(c.name);
+                boolean isDir = c.attrs.isDirectory();
+                if (r.excludes(p, isDir)) {
+                    continue;
+                }
+                if (isDir) {
+                    if (!prune.test(p)) {
+                        // 刚列出的目录已经有子目录的修改时间，复用的记录中的可能已经过时
+                        subs.add(new ScanTask(p, cached ? -1 : c.attrs.mtime, r, prune, false));
+                    }
+                } else {
+                    Kind                kind  = Kind.of(p);
+                    BasicFileAttributes attrs = c.attrs;
+                    if (cached && kind != Kind.ASSET) {
+                        // 原地修改不改变目录的修改时间，元数据要用文件当前的大小和修改时间
+                        try {
+                            attrs = Files.readAttributes(p, BasicFileAttributes.class,
+                                    LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                    }
+                    files.add(new Entry(p, attrs, kind));
+                }
+            }
+            invokeAll(subs);
+            for (ScanTask t : subs) {
+                files.addAll(t.join());
+            }
+            return files;
+        }
+    }
+
+    private static class DirState {
+
+        final long        mtime;
+        final long        listedAt;
+        final List<Child> children;
+
+        DirState(long mtime, long listedAt, List<Child> children) {
+            this.mtime    = mtime;
+            this.listedAt = listedAt;
+            this.children = Collections.unmodifiableList(children);
+        }
+    }
+
+    private static class Child {
+
+        final String           name;
+        final CachedAttributes attrs;
+
+        Child(String name, CachedAttributes attrs) {
+            this.name  = name;
+            this.attrs = attrs;
+        }
+    }
+
+    /**
+     * 保存下来的文件属性，只有大小、修改时间和类型
+     */
+    private static class CachedAttributes implements BasicFileAttributes {
+
+        static final int DIRECTORY = 1;
+        static final int REGULAR   = 2;
+        static final int LINK      = 4;
+        static final int OTHER     = 8;
+
+        final int  flags;
+        final long size;
+        final long mtime;
+
+        CachedAttributes(int flags, long size, long mtime) {
+            this.flags = flags;
+            this.size  = size;
+            this.mtime = mtime;
+        }
+
+        static CachedAttributes of(BasicFileAttributes a) {
+            int flags = (a.isDirectory() ? DIRECTORY : 0) | (a.isRegularFile() ? REGULAR : 0)
+                    | (a.isSymbolicLink() ? LINK : 0) | (a.isOther() ? OTHER : 0);
+            return new CachedAttributes(flags, a.size(), a.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(mtime);
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return (flags & REGULAR) != 0;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return (flags & DIRECTORY) != 0;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return (flags & LINK) != 0;
+        }
+
+        @Override
+        public boolean isOther() {
+            return (flags & OTHER) != 0;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+
+    /**
+     * 一个 .blogignore 中的规则，加上上级目录的规则
+     */
+    private static class Rules {
+
+        final Rules             parent;
+        final Path              base;
+        final List<PathMatcher> names    = new ArrayList<>();
+        final List<PathMatcher> dirNames = new ArrayList<>();
+        final List<PathMatcher> paths    = new ArrayList<>();
+        final List<PathMatcher> dirPaths = new ArrayList<>();
+
+        Rules(Rules parent, Path base, List<String> patterns) {
+            this.parent = parent;
+            this.base   = base;
+            FileSystem fs = FileSystems.getDefault();
+            for (String line : patterns) {
+                String s = line.trim();
+                if (s.isEmpty() || s.startsWith("#")) {
+                    continue;
+                }
+                boolean dirOnly = s.endsWith("/");
+                if (dirOnly) {
+                    s = s.substring(0, s.length() - 1);
+                }
+                boolean anchored = s.startsWith("/") || s.contains("/");
+                if (s.startsWith("/")) {
+                    s = s.substring(1);
+                }
+                if (s.isEmpty()) {
+                    continue;
+                }
+                PathMatcher m = fs.getPathMatcher("glob:" + s);
+                if (anchored && base != null) {
+                    (dirOnly ? dirPaths : paths).add(m);
+                } else {
+                    (dirOnly ? dirNames : names).add(m);
+                }
+            }
+        }
+
+        static Rules load(Path dir, Path file, Rules parent) {
+            try {
+                return new Rules(parent, dir, Files.readAllLines(file, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.err.printf("Can not read %s: %s%n", file, e);
+                return parent;
+            }
+        }
+
+        boolean excludes(Path p, boolean isDir) {
+            Path name = p.getFileName();
+            for (Rules r = this; r != null; r = r.parent) {
+                if (matches(r.names, name) || (isDir && matches(r.dirNames, name))) {
+                    return true;
+                }
+                if (r.base != null) {
+                    Path rel = r.base.relativize(p);
+                    if (matches(r.paths, rel) || (isDir && matches(r.dirPaths, rel))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean matches(List<PathMatcher> matchers, Path p) {
+            for (PathMatcher m : matchers) {
+                if (m.matches(p)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
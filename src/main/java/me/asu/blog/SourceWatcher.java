@@ -0,0 +1,142 @@
+package me.asu.blog;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监视源文件目录，把一连串的变化（编辑器保存、git pull 等）合并成一次回调。
+ *
+ * <p>WatchService 不支持递归，启动时注册所有子目录，新建的目录在收到事件时补注册。
+ * {@link SourceScanner} 排除的目录（.git、node_modules、.blogignore 中的目录等）不注册，
+ * 排除的文件的变化也忽略，git 操作和编辑器的备份文件不会触发构建；.blogignore 本身的变化除外。
+ *
+ * @author suk
+ */
+public class SourceWatcher implements Closeable {
+
+    /**
+     * 变化处理
+     */
+    public interface Listener {
+
+        void changed(Set<Path> paths) throws Exception;
+    }
+
+    private final WatchService       watcher;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final List<Path>         roots;
+    private final long               debounceMillis;
+
+    public SourceWatcher(Collection<Path> roots, long debounceMillis) throws IOException {
+        this.watcher        = FileSystems.getDefault().newWatchService();
+        this.roots          = new ArrayList<>();
+        this.debounceMillis = debounceMillis;
+        for (Path root : roots) {
+            if (root != null && Files.isDirectory(root)) {
+                this.roots.add(root);
+                registerAll(root);
+            }
+        }
+    }
+
+    /**
+     * 一直监视直到线程被中断。最后一个事件之后静默 debounceMillis 才回调，回调中的异常只打印。
+     */
+    public void run(Listener listener) throws InterruptedException {
+        System.out.printf("Watching %s for changes...%n", roots);
+        while (true) {
+            Set<Path> changed = new LinkedHashSet<>();
+            WatchKey  key     = watcher.take();
+            while (key != null) {
+                collect(key, changed);
+                key = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            }
+            if (changed.isEmpty()) {
+                continue;
+            }
+            System.out.printf("%d paths changed, rebuilding...%n", changed.size());
+            long start = System.currentTimeMillis();
+            try {
+                listener.changed(changed);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            System.out.printf("Rebuilt in %d ms.%n", System.currentTimeMillis() - start);
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // 丢了事件，只知道这个目录下有变化
+                changed.add(dir == null ? roots.get(0) : dir);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (isExcluded(child)) {
+                continue;
+            }
+            changed.add(child);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerAll(child);
+                    // 注册之前目录里可能已经有文件了
+                    try (DirectoryStream<Path> s = Files.newDirectoryStream(child)) {
+                        s.forEach(changed::add);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * 改了 .blogignore 要重新遍历，不忽略
+     */
+    private boolean isExcluded(Path path) {
+        if (path.getFileName().toString().equals(SourceScanner.IGNORE_FILE)) {
+            return false;
+        }
+        Path root = null;
+        for (Path r : roots) {
+            if (path.startsWith(r) && (root == null || r.startsWith(root))) {
+                root = r;
+            }
+        }
+        return root != null && SourceScanner.isExcluded(root, path);
+    }
+
+    private void registerAll(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            throws IOException {
+                if (!dir.equals(root) && isExcluded(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
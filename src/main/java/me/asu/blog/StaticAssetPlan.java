@@ -0,0 +1,102 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * 一次构建要复制的所有静态资源：目标文件到源文件的映射，每个目标只出现一次。
+ *
+ * <p>栏目目录（posts、wiki 等）由 {@link DirGenerator} 遍历时顺带登记，并记为已覆盖；
+ * 之后 {@link #addDir} 遍历 src 时跳过映射相同的已覆盖目录，同一批文件不再遍历第二次。
+ * 同一个目标登记多次时后登记的源文件生效，和原来依次复制、后者覆盖前者的结果一致。
+ * 计划由 {@link ResourcesCopier#copy(StaticAssetPlan)} 一次并行执行。
+ *
+ * @author suk
+ */
+public class StaticAssetPlan {
+
+    private final Map<Path, Path> sources = new LinkedHashMap<>();
+    private final Map<Path, Path> covered = new HashMap<>();
+    private final SourceScanner   scanner;
+    private int overridden;
+
+    public StaticAssetPlan() {
+        this(new SourceScanner());
+    }
+
+    public StaticAssetPlan(SourceScanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * 登记一个文件，目标已经登记过时替换原来的源文件
+     */
+    public synchronized void add(Path source, Path dest) {
+        Path key = dest.toAbsolutePath().normalize();
+        if (sources.remove(key) != null) {
+            overridden++;
+        }
+        sources.put(key, source);
+    }
+
+    /**
+     * inputDir 下的文件已经全部登记到 outDir
+     */
+    public synchronized void cover(Path inputDir, Path outDir) {
+        covered.put(inputDir.toAbsolutePath().normalize(), outDir.toAbsolutePath().normalize());
+    }
+
+    /**
+     * 登记 inputDir 下扩展名匹配的文件，目标为 outDir 下的同名路径。
+     *
+     * @param extensions 以 | 分隔的扩展名，不区分大小写
+     */
+    public void addDir(Path inputDir, Path outDir, String extensions) throws IOException {
+        if (inputDir == null || !Files.isDirectory(inputDir)) {
+            return;
+        }
+        Set<String> exts = new HashSet<>();
+        for (String s : extensions.trim().toLowerCase().split("\\|")) {
+            if (!s.trim().isEmpty()) {
+                exts.add(s.trim());
+            }
+        }
+        Path in  = inputDir.toAbsolutePath().normalize();
+        Path out = outDir.toAbsolutePath().normalize();
+        List<SourceScanner.Entry> files = scanner.scan(in, dir -> {
+            Path target = coveredTarget(dir);
+            return target != null && target.equals(out.resolve(in.relativize(dir).toString()));
+        });
+        for (SourceScanner.Entry e : files) {
+            Path   file = e.getPath();
+            String f    = file.getFileName().toString();
+            int    i    = f.lastIndexOf('.');
+            if (i >= 0 && exts.contains(f.substring(i + 1).toLowerCase())) {
+                add(file, out.resolve(in.relativize(file).toString()));
+            }
+        }
+    }
+
+    private synchronized Path coveredTarget(Path dir) {
+        return covered.get(dir);
+    }
+
+    /**
+     * @return 目标文件到源文件的映射，按登记顺序
+     */
+    public synchronized Map<Path, Path> entries() {
+        return new LinkedHashMap<>(sources);
+    }
+
+    public synchronized int size() {
+        return sources.size();
+    }
+
+    /**
+     * @return 被后登记的源文件替换的次数
+     */
+    public synchronized int overridden() {
+        return overridden;
+    }
+}
@@ -2,22 +2,235 @@ package me.asu.blog;
 
 import asu.fastm.FastEx;
 import asu.fastm.FastmConfig;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
+/**
+ * 模板渲染服务。
+ *
+ * <p>fastm 的配置是全局的，{@link #init} 在写锁下设置配置，并在当前线程把 fastm.xml 中的每个模板
+ * 渲染一遍，让 fastm 延迟解析的模板在单线程中解析好；之后模板目录、映射和哈希作为不可变的快照发布。
+ * FastEx.parse 是否线程安全无法从 fastm 的源码确认，读写锁也只排除重新加载，所以每个渲染线程
+ * 第一次渲染时创建自己的 {@link FastmInstance}（单独的类加载器加载的 fastm），按同样的配置加载模板；
+ * 渲染只持有读锁，多个线程同时渲染，彼此不共享 fastm 的状态，每次渲染的状态只有调用方自己的 model。
+ * 重新加载模板（--watch 模式）时持有写锁，等正在进行的渲染结束，各线程下次渲染前重新加载自己的实例。
+ * {@link #setConcurrent} 关闭或无法创建独立实例时，渲染持有写锁，一次只渲染一个页面，使用共享的 fastm。
+ *
+ * @author suk
+ */
 public class TemplateHelper {
 
+    private static final ReentrantReadWriteLock LOCK = new ReentrantReadWriteLock();
+
+    private static volatile Templates templates = new Templates(null, Collections.emptyMap());
+    /**
+     * 为 false 时渲染也持有写锁，一次只渲染一个页面。
+     */
+    private static volatile boolean   concurrent = true;
+    /**
+     * 创建独立实例失败后为 false，不再尝试
+     */
+    private static volatile boolean   isolated   = FastmInstance.isAvailable();
+
+    private static final ThreadLocal<FastmInstance> INSTANCE = new ThreadLocal<>();
+
     public static void init(String templatesDir) {
+        LOCK.writeLock().lock();
         try {
-            FastmConfig.setTemplateDir(templatesDir);
-            // FastmConfig.setTemplateDir 会调用  Parser.setParserContext
-//            net.fastm.Parser.setParserContext("src/main/templates");
-            FastmConfig.loadFastmConfigByFilePath(templatesDir + "/fastm.xml");
-        } catch (Exception e) {
+            try {
+                FastmConfig.setTemplateDir(templatesDir);
+                // FastmConfig.setTemplateDir 会调用  Parser.setParserContext
+//                net.fastm.Parser.setParserContext("src/main/templates");
+                FastmConfig.loadFastmConfigByFilePath(templatesDir + "/fastm.xml");
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            Templates t = new Templates(templatesDir, mappings(templatesDir));
+            for (String name : t.mappings.keySet()) {
+                try {
+                    FastEx.parse(name, new HashMap<>());
+                } catch (Exception e) {
+                    System.err.printf("Can not load template %s: %s%n", name, e);
+                }
+            }
+            templates = t;
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    public static void setConcurrent(boolean concurrent) {
+        TemplateHelper.concurrent = concurrent;
+    }
+
+    static boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * @return fastm.xml 中的模板名到模板文件的映射
+     */
+    public static Map<String, String> mappings() {
+        return templates.mappings;
+    }
+
+    /**
+     * 模板目录下所有文件内容的哈希，模板之间有 include，任何一个改动都算模板改动。
+     */
+    public static String templateHash() {
+        return templates.hash();
+    }
+
+    /**
+     * 模板目录下文件的最新修改时间。
+     */
+    public static long lastModified() {
+        long last = 0;
+        try {
+            for (Path p : templateFiles()) {
+                last = Math.max(last, p.toFile().lastModified());
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
+        return last;
+    }
+
+    static List<Path> templateFiles() throws IOException {
+        return templateFiles(templates.dir);
+    }
+
+    private static List<Path> templateFiles(String templatesDir) throws IOException {
+        if (templatesDir == null || !Files.isDirectory(Paths.get(templatesDir))) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> s = Files.list(Paths.get(templatesDir))) {
+            return s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
     }
 
     public static String parse(String templateName, Object value)
     throws Exception {
-        return FastEx.parse(templateName, value);
+        if (concurrent && isolated) {
+            LOCK.readLock().lock();
+            try {
+                FastmInstance fastm = instance();
+                if (fastm != null) {
+                    return fastm.parse(templateName, value);
+                }
+            } finally {
+                LOCK.readLock().unlock();
+            }
+        }
+        Lock lock = LOCK.writeLock();
+        lock.lock();
+        try {
+            return FastEx.parse(templateName, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 当前线程的 fastm，模板配置和当前的一致；无法创建时为 null
+     */
+    static FastmInstance instance() {
+        FastmInstance fastm = INSTANCE.get();
+        if (fastm == null) {
+            try {
+                fastm = new FastmInstance();
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                System.err.println("Can not isolate fastm per thread, render one page at a time: " + e);
+                isolated = false;
+                return null;
+            }
+            INSTANCE.set(fastm);
+        }
+        Templates t = templates;
+        if (fastm.loaded != t) {
+            fastm.load(t.dir, t.mappings.keySet());
+            fastm.loaded = t;
+        }
+        return fastm;
+    }
+
+    /**
+     * 渲染后分块编码写入 path。fastm 只能返回整个页面的 String，这里省掉的是 getBytes 生成的
+     * byte[] 副本。
+     *
+     * @return 渲染出的页面，供渲染缓存保存
+     */
+    public static String render(String templateName, Object value, OutputSink sink, Path path,
+            Charset charset) throws Exception {
+        String page = parse(templateName, value);
+        sink.write(path, page, charset);
+        return page;
+    }
+
+    private static Map<String, String> mappings(String templatesDir) {
+        Map<String, String> mappings = new LinkedHashMap<>();
+        Path                xml      = Paths.get(String.valueOf(templatesDir), "fastm.xml");
+        if (templatesDir == null || !Files.isRegularFile(xml)) {
+            return mappings;
+        }
+        try {
+            NodeList list = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                                                  .parse(xml.toFile())
+                                                  .getElementsByTagName("template-mapping");
+            for (int i = 0; i < list.getLength(); i++) {
+                Element e = (Element) list.item(i);
+                mappings.put(e.getAttribute("name"), e.getAttribute("file"));
+            }
+        } catch (Exception e) {
+            System.err.printf("Can not read %s: %s%n", xml, e);
+        }
+        return mappings;
+    }
+
+    /**
+     * 一次加载的模板，发布之后不再修改。
+     */
+    private static class Templates {
+
+        final String              dir;
+        final Map<String, String> mappings;
+        private volatile String   hash;
+
+        Templates(String dir, Map<String, String> mappings) {
+            this.dir      = dir;
+            this.mappings = Collections.unmodifiableMap(mappings);
+        }
+
+        String hash() {
+            String h = hash;
+            if (h == null) {
+                // 多个线程同时计算时结果相同
+                try {
+                    MessageDigest md5 = MessageDigest.getInstance("md5");
+                    for (Path p : templateFiles(dir)) {
+                        md5.update(p.getFileName().toString().getBytes("UTF-8"));
+                        md5.update(Files.readAllBytes(p));
+                    }
+                    h = Hashes.hex(md5.digest());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    h = "unknown";
+                }
+                hash = h;
+            }
+            return h;
+        }
     }
 }
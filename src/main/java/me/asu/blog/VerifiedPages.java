@@ -0,0 +1,89 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * 没有依赖记录（未配置 cache.dir）时，内容已确认和重新生成的结果相同的页面。
+ *
+ * <p>这种情况下按修改时间判断页面是否过时，而内容相同的页面不会重写，修改时间不会前进，
+ * touch 过但内容没变的源文件（git checkout 等）就会每次都重新转换。这里记下确认时源文件（含模板）
+ * 和页面的修改时间，两者都没变就不再转换；页面本身不动，部署工具看到的修改时间保持稳定。
+ * 记录放在系统临时目录中，每个输出目录一个文件，丢失只会多转换一次。
+ *
+ * @author suk
+ */
+class VerifiedPages {
+
+    private final Path       file;
+    private final Properties pages = new Properties();
+    private volatile boolean dirty;
+
+    VerifiedPages(Path file) {
+        this.file = file;
+    }
+
+    static VerifiedPages load(Path outDir) {
+        String        key   = outDir.toAbsolutePath().normalize().toString();
+        Path          file  = Paths.get(System.getProperty("java.io.tmpdir"), "blog-verified",
+                Hashes.hex(Hashes.md5(key.getBytes(StandardCharsets.UTF_8))) + ".properties");
+        VerifiedPages pages = new VerifiedPages(file);
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                pages.pages.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.printf("Can not load %s: %s%n", file, e);
+                pages.pages.clear();
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return 上次确认之后源文件和页面都没有变
+     */
+    boolean isVerified(Path dest, long sourceModified, long destModified) {
+        return value(sourceModified, destModified).equals(pages.getProperty(key(dest)));
+    }
+
+    void verified(Path dest, long sourceModified, long destModified) {
+        pages.setProperty(key(dest), value(sourceModified, destModified));
+        dirty = true;
+    }
+
+    void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                pages.store(out, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.printf("Can not save %s: %s%n", file, e);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    private static String key(Path dest) {
+        return dest.toAbsolutePath().normalize().toString();
+    }
+
+    private static String value(long sourceModified, long destModified) {
+        return sourceModified + "," + destModified;
+    }
+}
@@ -0,0 +1,119 @@
+package me.asu.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer with an upper bound. Bytes written past the limit are counted and
+ * discarded, so a process producing unbounded output can still be drained without exhausting the
+ * heap.
+ */
+public class CappedBuffer extends OutputStream {
+
+    private final int    limit;
+    private       byte[] buf;
+    private       int    count;
+    private       long   dropped;
+
+    public CappedBuffer(int limit) {
+        this(Math.min(8192, limit), limit);
+    }
+
+    public CappedBuffer(int initialSize, int limit) {
+        this.limit = limit;
+        this.buf   = new byte[Math.max(0, Math.min(initialSize, limit))];
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        int keep = Math.min(len, limit - count);
+        if (keep > 0) {
+            ensureCapacity(count + keep);
+            System.arraycopy(b, off, buf, count, keep);
+            count += keep;
+        }
+        dropped += len - Math.max(keep, 0);
+    }
+
+    /**
+     * Read the stream to the end, keeping at most {@code limit} bytes.
+     */
+    public void readFrom(InputStream in) throws IOException {
+        byte[] scratch = null;
+        while (true) {
+            if (count < limit) {
+                ensureCapacity(Math.min(limit, count + 1));
+                int n = in.read(buf, count, buf.length - count);
+                if (n < 0) {
+                    return;
+                }
+                count += n;
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[8192];
+                }
+                int n = in.read(scratch);
+                if (n < 0) {
+                    return;
+                }
+                dropped += n;
+            }
+        }
+    }
+
+    private void ensureCapacity(int min) {
+        if (min > buf.length) {
+            int size = (int) Math.min(limit, Math.max(min, Math.max(8192L, buf.length * 2L)));
+            buf = Arrays.copyOf(buf, size);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of bytes discarded because the limit was reached
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    public boolean isTruncated() {
+        return dropped > 0;
+    }
+
+    public void reset() {
+        count   = 0;
+        dropped = 0;
+    }
+
+    /**
+     * A read-only view of the kept bytes, no copy is made.
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public String toString(Charset charset) {
+        return new String(buf, 0, count, charset);
+    }
+
+    @Override
+    public String toString() {
+        return toString(Charset.defaultCharset());
+    }
+}
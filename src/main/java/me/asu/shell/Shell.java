@@ -1,11 +1,19 @@
 package me.asu.shell;
 
 import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 /**
  * A base class for running a Unix command.
@@ -48,6 +56,10 @@ abstract public class Shell {
      */
     public static final String TOKEN_SEPARATOR_REGEX = WINDOWS ? "[|\n\r]"
             : "[ \t\n\r\f]";
+    /**
+     * Default cap of the stderr kept for the error message
+     */
+    public static final int DEFAULT_MAX_ERROR_BYTES = 1 << 20;
     /**
      * merge stdout and stderr
      */
@@ -77,6 +89,14 @@ abstract public class Shell {
      */
     private Map<String, String> environment;
     private File dir;
+    /**
+     * the stderr kept for the error message is capped at this size
+     */
+    protected int maxErrorBytes = DEFAULT_MAX_ERROR_BYTES;
+    /**
+     * written to the stdin of the process, then stdin is closed
+     */
+    private ByteBuffer input;
     /**
      * sub process used to execute the command
      */
@@ -265,6 +285,15 @@ abstract public class Shell {
         this.dir = dir;
     }
 
+    /**
+     * set the content to feed to the stdin of the command
+     *
+     * @param input the content, or null to leave stdin untouched
+     */
+    protected void setInput(ByteBuffer input) {
+        this.input = input;
+    }
+
     /**
      * check to see if a command needs to be executed and execute if needed
      */
@@ -280,9 +309,7 @@ abstract public class Shell {
      * Run a command
      */
     private void runCommand() throws IOException, OutOfMemoryError {
-        ProcessBuilder        builder          = new ProcessBuilder(getExecString());
-        Timer                 timeOutTimer     = null;
-        ShellTimeoutTimerTask timeoutTimerTask = null;
+        ProcessBuilder builder = new ProcessBuilder(getExecString());
         timedOut  = new AtomicBoolean(false);
         completed = new AtomicBoolean(false);
 
@@ -315,11 +342,10 @@ abstract public class Shell {
             process = builder.start();
         }
 
+        ScheduledFuture<?> timeout = null;
         if (timeOutInterval > 0) {
-            timeOutTimer     = new Timer("Shell command timeout");
-            timeoutTimerTask = new ShellTimeoutTimerTask(this);
-            //One time scheduling.
-            timeOutTimer.schedule(timeoutTimerTask, timeOutInterval);
+            timeout = ShellExecutors.timeouts().schedule(new ShellTimeoutTimerTask(this),
+                    timeOutInterval, TimeUnit.MILLISECONDS);
         }
 
         //    CodepageDetectorProxy cpDetector = CodepageDetectorProxy.getInstance();
@@ -329,82 +355,62 @@ abstract public class Shell {
         //    Charset inCharset = cpDetector.detectCodepage(inInputStream, 1000);
         //    Charset errCharset = cpDetector.detectCodepage(errInputStream, 1000);
 
-        /*
-          sun.jnu.encoding 除了影响读取类名，还会影响传入参数的编码。
-          file.encoding    默认编码， 影响读取内容的编码
-         */
-        String charset = System.getProperty("sun.jnu.encoding", Charset.defaultCharset()
-                                                                       .name());
-        final BufferedReader errReader = new BufferedReader(new InputStreamReader(process
-                .getErrorStream(), charset));
-        BufferedReader inReader = new BufferedReader(new InputStreamReader(process
-                .getInputStream(), charset));
-        final StringBuffer errMsg = new StringBuffer();
+        InputStream       stdout = process.getInputStream();
+        InputStream       stderr = process.getErrorStream();
+        final CappedBuffer errMsg = new CappedBuffer(maxErrorBytes);
         // read error and input streams as this would free up the buffers
         // free the error stream buffer
-        Thread errThread = new Thread() {
-            @Override
-            public void run() {
-                try {
-                    String line = errReader.readLine();
-                    while ((line != null) && !isInterrupted()) {
-                        errMsg.append(line);
-                        errMsg.append(System.getProperty("line.separator"));
-                        if (errMsg.length() > 1000000) {
-                            // too large
-                            System.err.println("Too large error message, truncate it.");
-                            System.err.println(errMsg.toString());
-                            errMsg.setLength(0);
-                        }
-                        line = errReader.readLine();
-                    }
-                } catch (IOException ioe) {
+        Future<?> errPump = ShellExecutors.pumps().submit(() -> {
+            try {
+                errMsg.readFrom(stderr);
+            } catch (IOException ioe) {
+                if (!completed.get()) {
                     ioe.printStackTrace();
                 }
             }
-        };
-
-        try {
-            errThread.start();
-        } catch (IllegalStateException ignored) {
+        });
+        // stdin is written by a pump while this thread reads stdout, neither side can block
+        // the other on a full pipe
+        Future<?> inPump = null;
+        if (input != null) {
+            final OutputStream stdin = process.getOutputStream();
+            final ByteBuffer   data  = input.duplicate();
+            inPump = ShellExecutors.pumps().submit(() -> {
+                try (OutputStream out = stdin) {
+                    Channels.newChannel(out).write(data);
+                } catch (IOException e) {
+                    // the process exited without reading all of its input, the exit code tells why
+                    System.err.println("Failed to write stdin: " + e);
+                }
+            });
+        } else {
+            process.getOutputStream().close();
         }
 
         try {
             // parse the output
-            Thread outThread = new Thread() {
-                @Override
-                public void run() {
-
-                    try {
-                        parseExecResult(inReader);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            };
-            outThread.start();
-
+            parseExecResult(stdout);
             // wait for the process to finish and check the exit code
             exitCode = process.waitFor();
-            // make sure that the error thread exits
-            joinThread(errThread);
-            joinThread(outThread);
-            // clear the input stream buffer
-            //String line = inReader.readLine();
-            //while (line != null) {
-            //    line = inReader.readLine();
-            //}
+            // make sure that the pumps exit
+            await(errPump);
+            await(inPump);
             completed.set(true);
-            //the timeout thread handling
+            //the timeout handling
             //taken care in finally block
             if (exitCode != 0) {
-                throw new ExitCodeException(exitCode, errMsg.toString());
+                String msg = errMsg.toString(getOutputCharset());
+                if (errMsg.isTruncated()) {
+                    msg += System.getProperty("line.separator") + "... " + errMsg.dropped()
+                            + " bytes of error output truncated";
+                }
+                throw new ExitCodeException(exitCode, msg);
             }
         } catch (InterruptedException ie) {
             throw new IOException(ie.toString());
         } finally {
-            if (timeOutTimer != null) {
-                timeOutTimer.cancel();
+            if (timeout != null) {
+                timeout.cancel(false);
             }
             // close the input stream
             try {
@@ -415,21 +421,22 @@ abstract public class Shell {
                 // drain that fd!!  it may block, OOM, or cause bizarre behavior
                 // see: https://bugs.openjdk.java.net/browse/JDK-8024521
                 //      issue is fixed in build 7u60
-                InputStream stdout = process.getInputStream();
                 synchronized (stdout) {
-                    inReader.close();
+                    stdout.close();
                 }
             } catch (IOException ioe) {
                 ioe.printStackTrace();
             }
             if (!completed.get()) {
-                errThread.interrupt();
-                joinThread(errThread);
+                destroyTree(process);
+                errPump.cancel(true);
+                if (inPump != null) {
+                    inPump.cancel(true);
+                }
             }
             try {
-                InputStream stderr = process.getErrorStream();
                 synchronized (stderr) {
-                    errReader.close();
+                    stderr.close();
                 }
             } catch (IOException ioe) {
                 ioe.printStackTrace();
@@ -444,23 +451,65 @@ abstract public class Shell {
      */
     protected abstract String[] getExecString();
 
+    /**
+     * Parse the execution result from the raw stdout of the process. The default implementation
+     * decodes it with {@link #getOutputCharset()} and calls {@link #parseExecResult(BufferedReader)}.
+     */
+    protected void parseExecResult(InputStream stdout) throws IOException {
+        parseExecResult(new BufferedReader(new InputStreamReader(stdout, getOutputCharset())));
+    }
+
     /**
      * Parse the execution result
      */
     protected abstract void parseExecResult(BufferedReader lines)
     throws IOException;
 
-    private static void joinThread(Thread t) {
-        while (t.isAlive()) {
+    /**
+     * The charset of the process output.
+     *
+     * sun.jnu.encoding 除了影响读取类名，还会影响传入参数的编码。
+     * file.encoding    默认编码， 影响读取内容的编码
+     */
+    protected Charset getOutputCharset() {
+        return Charset.forName(System.getProperty("sun.jnu.encoding", Charset.defaultCharset()
+                                                                             .name()));
+    }
+
+    /**
+     * Kill the process and all of its descendants. Killing a script does not kill the commands
+     * it started, and a child still holding the pipes would keep the readers blocked.
+     * Process.descendants() is Java 9+, on Java 8 only the process itself is killed.
+     */
+    public static void destroyTree(Process p) {
+        List<Object> descendants = new ArrayList<>();
+        Method       destroy     = null;
+        try {
+            // taken before the parent dies, orphans are re-parented and no longer descendants
+            ((Stream<?>) Process.class.getMethod("descendants").invoke(p)).forEach(descendants::add);
+            destroy = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        p.destroyForcibly();
+        for (Object handle : descendants) {
             try {
-                t.join();
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
-                t.interrupt(); // propagate interrupt
+                destroy.invoke(handle);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
             }
         }
     }
 
+    private static void await(Future<?> f) throws InterruptedException {
+        if (f == null) {
+            return;
+        }
+        try {
+            f.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
     /**
      * Get the environment variable
      */
@@ -507,9 +556,9 @@ abstract public class Shell {
     }
 
     /**
-     * Timer which is used to timeout scripts spawned off by shell.
+     * Task which is used to timeout scripts spawned off by shell.
      */
-    private static class ShellTimeoutTimerTask extends TimerTask {
+    private static class ShellTimeoutTimerTask implements Runnable {
 
         private Shell shell;
 
@@ -528,7 +577,7 @@ abstract public class Shell {
                 //if not just destroy it.
                 if (p != null && !shell.completed.get()) {
                     shell.setTimedOut();
-                    p.destroy();
+                    destroyTree(p);
                 }
             }
         }
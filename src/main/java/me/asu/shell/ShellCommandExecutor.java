@@ -3,6 +3,9 @@ package me.asu.shell;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 /**
@@ -10,13 +13,22 @@ import java.util.Map;
  *
  * <code>ShellCommandExecutor</code>should be used in cases where the output
  * of the command needs no explicit parsing and where the command, working directory and the
- * environment remains unchanged. The output of the command is stored as-is and is expected to be
- * small.
+ * environment remains unchanged. The output of the command is stored as-is, up to
+ * {@link #DEFAULT_MAX_OUTPUT_BYTES} unless changed with {@link #setMaxOutput(int, int)}.
  */
 public class ShellCommandExecutor extends Shell implements CommandExecutor {
 
+    /**
+     * Default cap of the captured stdout
+     */
+    public static final int DEFAULT_MAX_OUTPUT_BYTES = 64 << 20;
+
     private String[]     command;
-    private StringBuffer output;
+    /**
+     * raw stdout of the command
+     */
+    private CappedBuffer output;
+    private int          maxOutputBytes = DEFAULT_MAX_OUTPUT_BYTES;
 
 
     public ShellCommandExecutor(String... execString) {
@@ -73,6 +85,28 @@ public class ShellCommandExecutor extends Shell implements CommandExecutor {
     }
 
 
+    /**
+     * Feed the content to the stdin of the command.
+     */
+    public void setStdin(ByteBuffer input) {
+        setInput(input);
+    }
+
+    /**
+     * Limit the captured stdout and stderr, the rest is read and discarded.
+     */
+    public void setMaxOutput(int maxOutputBytes, int maxErrorBytes) {
+        this.maxOutputBytes = maxOutputBytes;
+        this.maxErrorBytes  = maxErrorBytes;
+    }
+
+    /**
+     * @return if the stdout was larger than the cap and only its beginning was kept
+     */
+    public boolean isOutputTruncated() {
+        return output != null && output.isTruncated();
+    }
+
     /**
      * Execute the shell command.
      */
@@ -92,7 +126,21 @@ public class ShellCommandExecutor extends Shell implements CommandExecutor {
      */
     @Override
     public String getOutput() {
-        return (output == null) ? "" : output.toString();
+        return getOutput(getOutputCharset());
+    }
+
+    /**
+     * Get the output of the shell command decoded with the given charset.
+     */
+    public String getOutput(Charset charset) {
+        return (output == null) ? "" : output.toString(charset);
+    }
+
+    /**
+     * Get the raw output of the shell command without copying it.
+     */
+    public ByteBuffer getOutputBuffer() {
+        return (output == null) ? ByteBuffer.allocate(0) : output.buffer();
     }
 
     @Override
@@ -125,13 +173,25 @@ public class ShellCommandExecutor extends Shell implements CommandExecutor {
         return command;
     }
 
+    /**
+     * Keep the raw bytes, decoding is left to {@link #getOutput()}.
+     */
+    @Override
+    protected void parseExecResult(InputStream stdout) throws IOException {
+        output = new CappedBuffer(maxOutputBytes);
+        output.readFrom(stdout);
+    }
+
     @Override
     protected void parseExecResult(BufferedReader lines) throws IOException {
-        output = new StringBuffer();
-        char[] buf = new char[512];
-        int    nRead;
+        StringBuilder sb  = new StringBuilder();
+        char[]        buf = new char[512];
+        int           nRead;
         while ((nRead = lines.read(buf, 0, buf.length)) > 0) {
-            output.append(buf, 0, nRead);
+            sb.append(buf, 0, nRead);
         }
+        byte[] bytes = sb.toString().getBytes(getOutputCharset());
+        output = new CappedBuffer(bytes.length, maxOutputBytes);
+        output.write(bytes, 0, bytes.length);
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,8 @@ package me.asu.shell;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.Map;
 
 /**
@@ -43,11 +45,11 @@ public class ShellCommandExecutor2 extends ShellCommandExecutor {
     }
 
     @Override
-    protected void parseExecResult(BufferedReader lines) throws IOException {
+    protected void parseExecResult(InputStream stdout) throws IOException {
         if (handler != null) {
-            handler.handle(lines);
+            handler.handle(new BufferedReader(new InputStreamReader(stdout, getOutputCharset())));
         } else {
-            super.parseExecResult(lines);
+            super.parseExecResult(stdout);
         }
     }
 
@@ -0,0 +1,109 @@
+package me.asu.shell;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by all {@link Shell} instances: a pool that pumps the stdin and stderr of the
+ * sub processes and a single scheduler for the timeouts, so running a command does not create
+ * threads of its own.
+ *
+ * <p>The pump pool keeps at most {@code maxPumpThreads} threads. A pump must start at once or
+ * the process may block on a full pipe, so when the pool is saturated the task runs on a
+ * temporary thread instead of waiting in a queue. On a runtime with virtual threads (Java 21+)
+ * the pumps can run on virtual threads instead, see {@link #configure(int, boolean)}.
+ */
+public final class ShellExecutors {
+
+    /**
+     * system property for the maximum number of pooled pump threads, 0 means 4 per cpu
+     */
+    public static final String PUMP_THREADS_PROPERTY    = "shell.pump.threads";
+    /**
+     * system property to run the pumps on virtual threads when the runtime supports them
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "shell.virtual.threads";
+
+    private static int     maxPumpThreads = Integer.getInteger(PUMP_THREADS_PROPERTY, 0);
+    private static boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+    private static ExecutorService          pumps;
+    private static ScheduledExecutorService timeouts;
+
+    private ShellExecutors() {
+    }
+
+    /**
+     * Must be called before the first command is run, later calls have no effect.
+     *
+     * @param maxPumpThreads the maximum number of pooled pump threads, 0 means 4 per cpu
+     * @param virtualThreads use virtual threads for the pumps if the runtime supports them
+     */
+    public static synchronized void configure(int maxPumpThreads, boolean virtualThreads) {
+        if (pumps != null) {
+            System.err.println("Shell executors are already started, configuration IGNORED.");
+            return;
+        }
+        ShellExecutors.maxPumpThreads = maxPumpThreads;
+        ShellExecutors.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * The executor for stream pumping. A submitted task always starts immediately.
+     */
+    public static synchronized ExecutorService pumps() {
+        if (pumps == null) {
+            pumps = virtualThreads ? newVirtualThreadExecutor() : null;
+            if (pumps == null) {
+                int max = maxPumpThreads > 0 ? maxPumpThreads
+                        : 4 * Runtime.getRuntime().availableProcessors();
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(0, max, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<>(), daemonThreads("shell-pump"),
+                        (r, executor) -> newThread("shell-pump-overflow", r).start());
+                pumps = pool;
+            }
+        }
+        return pumps;
+    }
+
+    /**
+     * The scheduler for command timeouts, one daemon thread for all commands.
+     */
+    public static synchronized ScheduledExecutorService timeouts() {
+        if (timeouts == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                    daemonThreads("shell-timeout"));
+            // cancelled timeouts of finished commands should not pile up in the queue
+            scheduler.setRemoveOnCancelPolicy(true);
+            timeouts = scheduler;
+        }
+        return timeouts;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() through reflection, the code is compiled for
+     * Java 8.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Virtual threads are not supported by this runtime, "
+                    + "use platform threads.");
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> newThread(prefix + "-" + seq.incrementAndGet(), r);
+    }
+
+    private static Thread newThread(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
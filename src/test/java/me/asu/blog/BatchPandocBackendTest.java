@@ -0,0 +1,24 @@
+package me.asu.blog;
+
+import java.util.List;
+import junit.framework.TestCase;
+
+public class BatchPandocBackendTest extends TestCase
+{
+
+	public void testSplit() {
+		String token = "t";
+		String html = BatchPandocBackend.marker(token, 0) + "\n<p>a</p>\n"
+				+ BatchPandocBackend.marker(token, 1) + "\n<h1 id=\"b\">b</h1>\n";
+		List<String> parts = BatchPandocBackend.split(html, token, 2);
+		assertNotNull(parts);
+		assertEquals("<p>a</p>\n", parts.get(0));
+		assertEquals("<h1 id=\"b\">b</h1>\n", parts.get(1));
+	}
+
+	public void testSplitMissingMarker() {
+		String token = "t";
+		String html = BatchPandocBackend.marker(token, 0) + "\n<p>a</p>\n";
+		assertNull(BatchPandocBackend.split(html, token, 2));
+	}
+}
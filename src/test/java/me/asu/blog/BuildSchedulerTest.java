@@ -0,0 +1,65 @@
+package me.asu.blog;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public class BuildSchedulerTest extends TestCase
+{
+
+	public void testIndependentStagesRunConcurrently() throws Exception {
+		// 两个阶段互相等待，顺序执行时会超时
+		CountDownLatch both = new CountDownLatch(2);
+		BuildScheduler.Task task = () -> {
+			both.countDown();
+			if (!both.await(5, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("not concurrent");
+			}
+		};
+		List<BuildScheduler.Result> results = new BuildScheduler()
+				.stage("a", task)
+				.stage("b", task)
+				.run();
+		assertEquals(BuildScheduler.Status.OK, results.get(0).getStatus());
+		assertEquals(BuildScheduler.Status.OK, results.get(1).getStatus());
+	}
+
+	public void testFailureSkipsDependents() throws Exception {
+		StringBuffer order = new StringBuffer();
+		List<BuildScheduler.Result> results = new BuildScheduler()
+				.stage("a", () -> {
+					throw new IllegalStateException("boom");
+				})
+				.stage("b", () -> order.append('b'), "a")
+				.stage("c", () -> order.append('c'), "b")
+				.stage("d", () -> order.append('d'))
+				.run();
+		assertEquals(BuildScheduler.Status.FAILED, results.get(0).getStatus());
+		assertEquals(BuildScheduler.Status.SKIPPED, results.get(1).getStatus());
+		assertEquals(BuildScheduler.Status.SKIPPED, results.get(2).getStatus());
+		assertEquals(BuildScheduler.Status.OK, results.get(3).getStatus());
+		assertEquals("d", order.toString());
+	}
+
+	public void testDependencyOrder() throws Exception {
+		StringBuffer order = new StringBuffer();
+		new BuildScheduler()
+				.stage("a", () -> {
+					Thread.sleep(50);
+					order.append('a');
+				})
+				.stage("b", () -> order.append('b'), "a")
+				.run();
+		assertEquals("ab", order.toString());
+	}
+
+	public void testUnknownDependency() {
+		try {
+			new BuildScheduler().stage("a", () -> {
+			}, "missing");
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
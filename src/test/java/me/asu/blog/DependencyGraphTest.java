@@ -0,0 +1,43 @@
+package me.asu.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class DependencyGraphTest extends TestCase
+{
+
+	public void testIncludeAndTouch() throws Exception {
+		Path dir = Files.createTempDirectory("dep-graph");
+		Path src = dir.resolve("a.org");
+		Path inc = dir.resolve("part.org");
+		Path out = dir.resolve("a.html");
+		Files.write(src, "#+TITLE: A\n#+INCLUDE: \"part.org\"\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(inc, "* part\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(out, "<p>a</p>".getBytes(StandardCharsets.UTF_8));
+		Map<String, String> config = Collections.singletonMap("baseUrl", "/");
+		Path graphFile = dir.resolve("deps.bin");
+
+		DependencyGraph graph = DependencyGraph.load(graphFile);
+		assertNotNull(graph.staleReason(out, config));
+		graph.record(out, src, Collections.emptyList(), config);
+		graph.save();
+
+		// 只改修改时间不算改动
+		Files.setLastModifiedTime(src, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+		graph = DependencyGraph.load(graphFile);
+		assertNull(graph.staleReason(out, config));
+		assertNotNull(graph.staleReason(out, Collections.singletonMap("baseUrl", "/blog/")));
+
+		Files.write(inc, "* part changed\n".getBytes(StandardCharsets.UTF_8));
+		graph = DependencyGraph.load(graphFile);
+		assertNotNull(graph.staleReason(out, config));
+
+		Files.delete(src);
+		assertEquals(Collections.singletonList(out.toAbsolutePath()), graph.orphans(dir, dir));
+	}
+}
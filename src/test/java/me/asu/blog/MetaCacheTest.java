@@ -0,0 +1,69 @@
+package me.asu.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class MetaCacheTest extends TestCase
+{
+
+	public void testReloadSkipsParsing() throws Exception {
+		Path dir = Files.createTempDirectory("meta-cache");
+		Path src = dir.resolve("a.org");
+		Files.write(src, "#+TITLE: Hello\n#+filetags: a b\n\n* body\n".getBytes(StandardCharsets.UTF_8));
+		Path cacheFile = dir.resolve("meta.bin");
+
+		MetaCache cache = MetaCache.load(cacheFile, GetSrcFileInfoVisitor.PARSER_VERSION);
+		GetSrcFileInfoVisitor visitor = new GetSrcFileInfoVisitor(StandardCharsets.UTF_8, "posts", cache);
+		Files.walkFileTree(src, visitor);
+		assertEquals(1, cache.getMisses());
+		cache.save();
+
+		cache = MetaCache.load(cacheFile, GetSrcFileInfoVisitor.PARSER_VERSION);
+		visitor = new GetSrcFileInfoVisitor(StandardCharsets.UTF_8, "posts", cache);
+		Files.walkFileTree(src, visitor);
+		assertEquals(1, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		SrcFileInfo info = visitor.getFileInfoList().get(0);
+		assertEquals("Hello", info.getTitle());
+		assertEquals(2, info.getFileTags().length);
+
+		cache = MetaCache.load(cacheFile, GetSrcFileInfoVisitor.PARSER_VERSION + 1);
+		visitor = new GetSrcFileInfoVisitor(StandardCharsets.UTF_8, "posts", cache);
+		Files.walkFileTree(src, visitor);
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testHeaderOnlyFormatReadsPrefix() throws Exception {
+		Path dir = Files.createTempDirectory("meta-cache");
+		Path src = dir.resolve("big.org");
+		byte[] content = new byte[SourceBuffer.HEADER_PREFIX * 2];
+		Arrays.fill(content, (byte) 'x');
+		byte[] header = "#+TITLE: Big\n\n".getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(header, 0, content, 0, header.length);
+		Files.write(src, content);
+		Path cacheFile = dir.resolve("meta.bin");
+		try {
+			MetaCache cache = MetaCache.load(cacheFile, GetSrcFileInfoVisitor.PARSER_VERSION);
+			Files.walkFileTree(src, new GetSrcFileInfoVisitor(StandardCharsets.UTF_8, "posts", cache));
+			assertEquals(1, cache.getMisses());
+
+			// 只改正文，大小和修改时间都变了，文件头相同不再解析
+			content = Arrays.copyOf(content, content.length + 10);
+			Arrays.fill(content, content.length - 10, content.length, (byte) 'y');
+			Files.write(src, content);
+			Files.setLastModifiedTime(src, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+			GetSrcFileInfoVisitor visitor = new GetSrcFileInfoVisitor(StandardCharsets.UTF_8, "posts", cache);
+			Files.walkFileTree(src, visitor);
+			assertEquals(1, cache.getMisses());
+			assertEquals("Big", visitor.getFileInfoList().get(0).getTitle());
+		} finally {
+			Files.delete(src);
+			Files.deleteIfExists(cacheFile);
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package me.asu.blog;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 元数据提取的吞吐量，legacy 为原来每个键编译一次正则、扫描所有行的做法。
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main \
+ *     -Dexec.args=MetaExtractorBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetaExtractorBenchmark
+{
+
+	private static final String[] ORG_KEYS = {"TITLE", "DATE", "filetags", "DESCRIPTION", "AUTHOR", "AUTHORWEBSITE"};
+
+	byte[] org;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("#+TITLE: Benchmark\n#+DATE: <2020-01-01 05:23>\n#+filetags: java org\n");
+		sb.append("#+DESCRIPTION: a long article\n#+AUTHOR: suk\n#+AUTHORWEBSITE: https://example.com\n\n");
+		for (int i = 0; i < 2000; i++) {
+			sb.append("* heading ").append(i).append("\n  some body text of the article, line ").append(i).append('\n');
+		}
+		org = sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public SrcFileInfo extractor() throws Exception {
+		return MetaExtractor.ORG.extract(Paths.get("bench.org"), org, StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public String[] legacy() throws Exception {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(org), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		String[] values = new String[ORG_KEYS.length];
+		for (int k = 0; k < ORG_KEYS.length; k++) {
+			Pattern pattern = Pattern.compile("^#\\+" + ORG_KEYS[k] + ":\\s*(.+?)\\s*$", Pattern.CASE_INSENSITIVE);
+			for (String line : lines) {
+				Matcher m = pattern.matcher(line);
+				if (m.matches()) {
+					values[k] = m.group(1);
+					break;
+				}
+			}
+		}
+		DateUtils.parseDate(values[1]);
+		return values;
+	}
+}
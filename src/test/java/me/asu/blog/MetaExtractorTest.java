@@ -0,0 +1,41 @@
+package me.asu.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import junit.framework.TestCase;
+
+public class MetaExtractorTest extends TestCase
+{
+
+	public void testOrgStopsAtBody() throws Exception {
+		String org = "#+TITLE: Hello\n\n# comment\n#+DATE: <2020-01-01 05:23>\n#+filetags: a b\n"
+				+ "* body\n#+DESCRIPTION: not in header\n";
+		SrcFileInfo info = MetaExtractor.ORG.extract(Paths.get("a.org"), bytes(org), StandardCharsets.UTF_8);
+		assertEquals("Hello", info.getTitle());
+		assertNotNull(info.getArticleDate());
+		assertEquals(2, info.getFileTags().length);
+		assertEquals("", info.getDescription());
+	}
+
+	public void testMarkdownComments() throws Exception {
+		String md = "# Heading\n[comment]: <> (TITLE: Hello)\ntext\n[//]: # (filetags: a b c)\n";
+		SrcFileInfo info = MetaExtractor.MARKDOWN.extract(Paths.get("a.md"), bytes(md), StandardCharsets.UTF_8);
+		assertEquals("Hello", info.getTitle());
+		assertEquals(3, info.getFileTags().length);
+		assertNull(info.getArticleDate());
+	}
+
+	public void testHtmlHead() throws Exception {
+		String html = "<html><head>\n<title>Hello</title>\n<meta name=\"keywords\" content=\"linux reprint\" />\n"
+				+ "<meta name=\"author\" content=\"suk\" />\n</head>\n<meta name=\"description\" content=\"body\" />\n";
+		SrcFileInfo info = MetaExtractor.HTML.extract(Paths.get("a.html"), bytes(html), StandardCharsets.UTF_8);
+		assertEquals("Hello", info.getTitle());
+		assertEquals("suk", info.getAuthor());
+		assertEquals(2, info.getFileTags().length);
+		assertNull(info.getDescription());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,39 @@
+package me.asu.blog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import junit.framework.TestCase;
+
+public class OrphanRemoverTest extends TestCase
+{
+
+	public void testRemovesEmptyDirsUpToBase() throws Exception {
+		Path base = Files.createTempDirectory("orphans");
+		Path kept = base.resolve("posts/a.html");
+		Path orphan = base.resolve("posts/old/2020/b.html");
+		Files.createDirectories(orphan.getParent());
+		Files.write(kept, new byte[]{'a'});
+		Files.write(orphan, new byte[]{'b'});
+		try {
+			OutputDelta delta = new OutputDelta();
+			FileOutputSink sink = new FileOutputSink();
+			sink.setDelta(delta);
+			OrphanRemover remover = new OrphanRemover(sink, null, null);
+			assertTrue(remover.remove(orphan, base));
+			assertFalse(Files.exists(base.resolve("posts/old")));
+			assertTrue(Files.exists(kept));
+			assertEquals(OutputDelta.Kind.D, delta.get(orphan).getKind());
+
+			// 已经不存在的文件只清理记录
+			assertFalse(remover.remove(orphan, base));
+			assertEquals(1, remover.getRemoved());
+
+			assertTrue(remover.remove(kept, base));
+			assertTrue(Files.isDirectory(base));
+		} finally {
+			Files.deleteIfExists(kept);
+			Files.deleteIfExists(base.resolve("posts"));
+			Files.delete(base);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package me.asu.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class OutputDeltaTest extends TestCase
+{
+
+	public void testChangesWithinOneBuildAreMerged() {
+		Path        out   = Paths.get("out");
+		OutputDelta delta = new OutputDelta();
+		delta.written(out.resolve("new.html"), false, 1);
+		delta.written(out.resolve("new.html"), true, 2);
+		delta.written(out.resolve("a.html"), true, 3);
+		delta.deleted(out.resolve("b.html"));
+		delta.written(out.resolve("b.html"), false, 4);
+		delta.written(out.resolve("tmp.html"), false, 5);
+		delta.deleted(out.resolve("tmp.html"));
+
+		assertEquals(OutputDelta.Kind.A, delta.get(out.resolve("new.html")).getKind());
+		assertEquals(2, delta.get(out.resolve("new.html")).getHash());
+		assertEquals(OutputDelta.Kind.M, delta.get(out.resolve("a.html")).getKind());
+		assertEquals(OutputDelta.Kind.M, delta.get(out.resolve("b.html")).getKind());
+		assertNull(delta.get(out.resolve("tmp.html")));
+		assertEquals(3, delta.size());
+	}
+
+	public void testSaveRelativeSortedLines() throws Exception {
+		Path dir = Files.createTempDirectory("delta");
+		Path out = dir.resolve("site");
+		Path file = dir.resolve("delta.txt");
+		try {
+			OutputDelta delta = new OutputDelta();
+			delta.written(out.resolve("posts/x.html"), true, 0xabcL);
+			delta.written(out.resolve("index.html"), false, -1L);
+			delta.deleted(out.resolve("old.html"));
+			delta.written(dir.resolve("elsewhere.html"), false, 1);
+			delta.save(file, out);
+			assertEquals(Arrays.asList("A\tffffffffffffffff\tindex.html", "D\t-\told.html",
+					"M\t0000000000000abc\tposts/x.html"),
+					Files.readAllLines(file, StandardCharsets.UTF_8));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package me.asu.blog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+
+public class OutputManifestTest extends TestCase
+{
+
+	public void testOrphansAfterFullAndIncrementalBuilds() throws Exception {
+		Path dir  = Files.createTempDirectory("outputs");
+		Path base = dir.resolve("site");
+		Path file = dir.resolve("outputs.bin");
+		try {
+			OutputManifest m = OutputManifest.load(file);
+			m.start();
+			m.produced(base.resolve("index.html"));
+			m.produced(base.resolve("posts/a.html"));
+			m.produced(base.resolve("posts/b.html"));
+			m.produced(dir.resolve("outside.html"));
+			m.commit();
+
+			// 增量构建只登记了一部分，并入清单
+			m = OutputManifest.load(file);
+			m.start();
+			m.produced(base.resolve("posts/c.html"));
+			m.merge();
+
+			m = OutputManifest.load(file);
+			m.start();
+			m.produced(base.resolve("index.html"));
+			m.produced(base.resolve("posts/a.html"));
+			assertEquals(Arrays.asList(base.resolve("posts/b.html").toAbsolutePath(),
+					base.resolve("posts/c.html").toAbsolutePath()), m.orphans(base));
+			m.commit();
+
+			m = OutputManifest.load(file);
+			m.start();
+			m.produced(base.resolve("index.html"));
+			m.produced(base.resolve("posts/a.html"));
+			assertEquals(Collections.emptyList(), m.orphans(base));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+}
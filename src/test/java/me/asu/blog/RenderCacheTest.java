@@ -0,0 +1,54 @@
+package me.asu.blog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class RenderCacheTest extends TestCase
+{
+
+	public void testSweepKeepsReferencedEntries() throws Exception {
+		Path dir = Files.createTempDirectory("render");
+		Path a = dir.resolve("a.html");
+		Path b = dir.resolve("b.html");
+		try {
+			RenderCache cache = new RenderCache(dir.resolve("cache"));
+			String oldBody = RenderCache.bodyKey(Hashes.md5("a1".getBytes()), "markdown", "2.19", "");
+			String oldPage = RenderCache.pageKey(oldBody, "{}", "t1");
+			cache.putBody(oldBody, "<p>a1</p>");
+			cache.putPage(oldPage, "a1");
+			cache.use(a, oldBody, oldPage);
+			String bBody = RenderCache.bodyKey(Hashes.md5("b".getBytes()), "markdown", "2.19", "");
+			String bPage = RenderCache.pageKey(bBody, "{}", "t1");
+			cache.putBody(bBody, "<p>b</p>");
+			cache.putPage(bPage, "b");
+			cache.use(b, bBody, bPage);
+			cache.save();
+
+			// a 改过，b 这次没有重新生成
+			cache = new RenderCache(dir.resolve("cache"));
+			String newBody = RenderCache.bodyKey(Hashes.md5("a2".getBytes()), "markdown", "2.19", "");
+			String newPage = RenderCache.pageKey(newBody, "{}", "t1");
+			cache.putBody(newBody, "<p>a2</p>");
+			cache.putPage(newPage, "a2");
+			cache.use(a, newBody, newPage);
+
+			assertEquals(2, cache.sweep(p -> true));
+			assertNull(cache.getBody(oldBody));
+			assertNull(cache.getPage(oldPage));
+			assertEquals("<p>a2</p>", cache.getBody(newBody));
+			assertEquals("b", cache.getPage(bPage));
+
+			// b 不再生成
+			assertEquals(2, new RenderCache(dir.resolve("cache")).sweep(a::equals));
+			assertNull(cache.getBody(bBody));
+			assertEquals("a2", cache.getPage(newPage));
+		} finally {
+			try (Stream<Path> s = Files.walk(dir)) {
+				s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+}
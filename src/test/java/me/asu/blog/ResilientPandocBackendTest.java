@@ -0,0 +1,82 @@
+package me.asu.blog;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+import me.asu.shell.ExitCodeException;
+import junit.framework.TestCase;
+
+public class ResilientPandocBackendTest extends TestCase
+{
+
+	private final SourceBuffer source = SourceBuffer.wrap(Paths.get("a.org"), new byte[0]);
+
+	public void testRetryAfterTimeout() throws IOException {
+		AtomicInteger calls = new AtomicInteger();
+		ResilientPandocBackend backend = new ResilientPandocBackend(fake(calls, 1, null), 2, 0, false);
+		assertEquals("<p>ok</p>", backend.toHtml(source, "org"));
+		assertEquals(2, calls.get());
+		assertEquals(0, backend.drainReport());
+	}
+
+	public void testGiveUpAfterRetries() {
+		AtomicInteger calls = new AtomicInteger();
+		ResilientPandocBackend backend = new ResilientPandocBackend(fake(calls, 10, null), 1, 0, false);
+		try {
+			backend.toHtml(source, "org");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e instanceof ConversionTimeoutException);
+		}
+		assertEquals(2, calls.get());
+		assertEquals(1, backend.drainReport());
+		assertEquals(0, backend.drainReport());
+	}
+
+	public void testNoRetryOnDocumentError() {
+		AtomicInteger calls = new AtomicInteger();
+		ResilientPandocBackend backend = new ResilientPandocBackend(
+				fake(calls, 0, new ExitCodeException(1, "bad")), 3, 0, false);
+		try {
+			backend.toHtml(source, "org");
+			fail();
+		} catch (IOException e) {
+			assertTrue(e instanceof ExitCodeException);
+		}
+		assertEquals(1, calls.get());
+	}
+
+	public void testP99NeedsSamples() throws IOException {
+		ResilientPandocBackend backend = new ResilientPandocBackend(
+				fake(new AtomicInteger(), 0, null), 0, 0, false);
+		assertEquals(-1, backend.p99());
+		for (int i = 0; i < ResilientPandocBackend.MIN_SAMPLES; i++) {
+			backend.toHtml(source, "org");
+		}
+		assertTrue(backend.p99() > 0);
+	}
+
+	/**
+	 * 前 timeouts 次超时，之后抛出 error 或返回结果
+	 */
+	private static PandocBackend fake(AtomicInteger calls, int timeouts, IOException error) {
+		return new PandocBackend() {
+
+			@Override
+			public String toHtml(SourceBuffer source, String from) throws IOException {
+				if (calls.incrementAndGet() <= timeouts) {
+					throw new ConversionTimeoutException(source.path(), 1);
+				}
+				if (error != null) {
+					throw error;
+				}
+				return "<p>ok</p>";
+			}
+
+			@Override
+			public String version() {
+				return "test";
+			}
+		};
+	}
+}
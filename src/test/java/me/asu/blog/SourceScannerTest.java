@@ -0,0 +1,122 @@
+package me.asu.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+public class SourceScannerTest extends TestCase
+{
+
+	Path root;
+
+	@Override
+	protected void setUp() throws Exception {
+		root = Files.createTempDirectory("scan");
+		for (String f : new String[]{"a.org", "b.md", "c.html", "img/d.png", ".git/HEAD",
+				"node_modules/x/y.js", "ltximg/z.png", "e.org~", "#f.org#", "drafts/g.org",
+				"sub/drafts/h.org", "sub/i.md", "sub/tmp/j.md", "sub/k.log", "deep/1/2/3/l.md"}) {
+			Path p = root.resolve(f);
+			Files.createDirectories(p.getParent());
+			Files.write(p, f.getBytes(StandardCharsets.UTF_8));
+		}
+		Files.write(root.resolve(".blogignore"), Arrays.asList("# comment", "/drafts/", "*.log"),
+				StandardCharsets.UTF_8);
+		Files.write(root.resolve("sub/.blogignore"), Collections.singletonList("tmp/"),
+				StandardCharsets.UTF_8);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> s = Files.walk(root)) {
+			for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(p);
+			}
+		}
+	}
+
+	public void testExcludesAndClassifies() throws Exception {
+		Map<String, SourceScanner.Kind> found = new LinkedHashMap<>();
+		for (SourceScanner.Entry e : new SourceScanner().scan(root)) {
+			found.put(root.relativize(e.getPath()).toString().replace('\\', '/'), e.getKind());
+		}
+		Map<String, SourceScanner.Kind> expected = new LinkedHashMap<>();
+		expected.put("a.org", SourceScanner.Kind.ORG);
+		expected.put("b.md", SourceScanner.Kind.MD);
+		expected.put("c.html", SourceScanner.Kind.HTML);
+		expected.put("deep/1/2/3/l.md", SourceScanner.Kind.MD);
+		expected.put("img/d.png", SourceScanner.Kind.ASSET);
+		// /drafts/ 只排除 .blogignore 所在目录下的 drafts
+		expected.put("sub/drafts/h.org", SourceScanner.Kind.ORG);
+		expected.put("sub/i.md", SourceScanner.Kind.MD);
+		assertEquals(expected, found);
+	}
+
+	public void testPrune() throws Exception {
+		List<SourceScanner.Entry> entries = new SourceScanner().scan(root,
+				dir -> dir.getFileName().toString().equals("deep"));
+		for (SourceScanner.Entry e : entries) {
+			assertFalse(e.getPath().toString(), e.getPath().startsWith(root.resolve("deep")));
+		}
+		assertEquals(6, entries.size());
+	}
+
+	public void testIsExcludedMatchesScan() throws Exception {
+		for (String f : new String[]{".git", ".git/HEAD", "node_modules/x", "e.org~", "drafts",
+				"sub/tmp", "sub/tmp/j.md", "sub/k.log"}) {
+			assertTrue(f, SourceScanner.isExcluded(root, root.resolve(f)));
+		}
+		for (String f : new String[]{"a.org", "img", "sub/drafts/h.org", "sub/i.md", "deep/1/2"}) {
+			assertFalse(f, SourceScanner.isExcluded(root, root.resolve(f)));
+		}
+		assertFalse(SourceScanner.isExcluded(root, root));
+	}
+
+	public void testReusesUnchangedDirectories() throws Exception {
+		// 刚修改过的目录不复用，把修改时间改到一小时前
+		FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 3600000L);
+		try (Stream<Path> s = Files.walk(root)) {
+			for (Path dir : s.filter(Files::isDirectory).collect(Collectors.toList())) {
+				Files.setLastModifiedTime(dir, old);
+			}
+		}
+		Path          cache   = Files.createTempFile("scan", ".bin");
+		SourceScanner scanner = new SourceScanner(cache);
+		int           count   = scanner.scan(root).size();
+		scanner.save();
+		assertTrue(scanner.drainStats().endsWith(" 0 reused"));
+
+		// 目录的修改时间没变时不会看到新文件
+		Files.write(root.resolve("sub/new.md"), new byte[]{'x'});
+		Files.setLastModifiedTime(root.resolve("sub"), old);
+		SourceScanner loaded = SourceScanner.load(cache);
+		assertEquals(count, loaded.scan(root).size());
+		assertTrue(loaded.drainStats().startsWith("0 directories listed"));
+
+		// 原地修改的 org 文件用当前的属性，元数据缓存才能看到修改
+		Files.write(root.resolve("a.org"), "edited in place".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(root, old);
+		for (SourceScanner.Entry e : loaded.scan(root)) {
+			if (e.getPath().equals(root.resolve("a.org"))) {
+				assertEquals(15, e.getAttrs().size());
+			}
+		}
+		assertTrue(loaded.drainStats().startsWith("0 directories listed"));
+
+		loaded.setVerify(true);
+		assertEquals(count + 1, loaded.scan(root).size());
+		loaded.setVerify(false);
+
+		// 修改时间变了的目录重新列出
+		Files.delete(root.resolve("sub/new.md"));
+		Files.setLastModifiedTime(root.resolve("sub"), FileTime.fromMillis(old.toMillis() + 1000));
+		SourceScanner again = SourceScanner.load(cache);
+		assertEquals(count, again.scan(root).size());
+		assertTrue(again.drainStats().startsWith("1 directories listed"));
+		Files.delete(cache);
+	}
+}
@@ -0,0 +1,97 @@
+package me.asu.blog;
+
+import asu.fastm.FastEx;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+
+public class TemplateHelperTest extends TestCase
+{
+
+	static final String[] TEMPLATES = {"tmpl.post", "tmpl.index", "tmpl.tags", "tmpl.archive"};
+
+	static
+	{
+		TemplateHelper.init("src/main/templates");
+	}
+
+	public void testMappingsFromFastmXml() {
+		assertEquals(new HashSet<>(Arrays.asList(TEMPLATES)), TemplateHelper.mappings().keySet());
+		assertEquals("post.htm", TemplateHelper.mappings().get("tmpl.post"));
+	}
+
+	public void testConcurrentRenderingMatchesSingleThreaded() throws Exception {
+		boolean concurrent = TemplateHelper.isConcurrent();
+		TemplateHelper.setConcurrent(true);
+		ExecutorService pool = Executors.newFixedThreadPool(16);
+		try {
+			int          models   = 64;
+			List<String> expected = new ArrayList<>();
+			for (int i = 0; i < models; i++) {
+				expected.add(TemplateHelper.parse(TEMPLATES[i % TEMPLATES.length], model(i)));
+			}
+
+			Set<ClassLoader> loaders = Collections.synchronizedSet(new HashSet<>());
+			List<Future<?>>  tasks   = new ArrayList<>();
+			for (int n = 0; n < 2000; n++) {
+				int i = n % models;
+				tasks.add(pool.submit(() -> {
+					String out = TemplateHelper.parse(TEMPLATES[i % TEMPLATES.length], model(i));
+					assertEquals("model " + i, expected.get(i), out);
+					loaders.add(TemplateHelper.instance().loader());
+					return null;
+				}));
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+			// 每个线程渲染用的是自己的 fastm
+			assertTrue(loaders.size() > 1);
+			assertFalse(loaders.contains(FastEx.class.getClassLoader()));
+		} finally {
+			pool.shutdownNow();
+			TemplateHelper.setConcurrent(concurrent);
+		}
+	}
+
+	/**
+	 * 和各个生成器传给模板的数据结构相同，内容随 i 变化
+	 */
+	static Map<String, Object> model(int i) {
+		List<Map<String, Object>> tags = new ArrayList<>();
+		for (int t = 0; t <= i % 3; t++) {
+			Map<String, Object> tag = new HashMap<>();
+			tag.put("tag", "Tag" + t);
+			tag.put("tag-lowercase", "tag" + t);
+			List<Map<String, Object>> articles = new ArrayList<>();
+			for (int a = 0; a < 3; a++) {
+				Map<String, Object> article = new HashMap<>();
+				article.put("title", "Article " + i + "-" + a);
+				article.put("destUrl", "posts/" + i + "-" + a + ".html");
+				articles.add(article);
+			}
+			tag.put("articles", articles);
+			tags.add(tag);
+		}
+		List<Map<String, Object>> list = new ArrayList<>();
+		for (int a = 0; a < 20; a++) {
+			Map<String, Object> m = new HashMap<>();
+			m.put("title", "Post " + i + "-" + a);
+			m.put("summary", "Summary of post " + a);
+			m.put("date", "2020-01-" + (10 + a));
+			m.put("url", "posts/" + a + ".html");
+			m.put("tags", tags);
+			list.add(m);
+		}
+		Map<String, Object> value = new HashMap<>();
+		value.put("global_public_url", "https://example.com/");
+		value.put("title", "Title " + i);
+		value.put("date", new Date(1577836800000L + i * 86400000L));
+		value.put("content", "<p>Content " + i + "</p>");
+		value.put("tags", tags);
+		value.put("list", list);
+		return value;
+	}
+}
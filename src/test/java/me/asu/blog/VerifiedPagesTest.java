@@ -0,0 +1,29 @@
+package me.asu.blog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import junit.framework.TestCase;
+
+public class VerifiedPagesTest extends TestCase
+{
+
+	public void testRoundTrip() throws Exception {
+		Path out = Files.createTempDirectory("verified");
+		Path page = out.resolve("a.html");
+		try {
+			VerifiedPages pages = VerifiedPages.load(out);
+			assertFalse(pages.isVerified(page, 200, 100));
+			pages.verified(page, 200, 100);
+			pages.save();
+
+			pages = VerifiedPages.load(out);
+			assertTrue(pages.isVerified(page, 200, 100));
+			// 源文件或页面又变了
+			assertFalse(pages.isVerified(page, 300, 100));
+			assertFalse(pages.isVerified(page, 200, 150));
+		} finally {
+			Files.deleteIfExists(VerifiedPages.load(out).getFile());
+			Files.delete(out);
+		}
+	}
+}
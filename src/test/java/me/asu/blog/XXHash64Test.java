@@ -0,0 +1,29 @@
+package me.asu.blog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class XXHash64Test extends TestCase
+{
+
+	public void testKnownValues() {
+		assertEquals(0xEF46DB3751D8E999L, XXHash64.hash(new byte[0]));
+		assertEquals(0x44BC2CF5AD770999L, XXHash64.hash("abc".getBytes(StandardCharsets.US_ASCII)));
+		assertEquals(0xFBCEA83C8A378BF1L, XXHash64.hash(
+				"Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	public void testStreaming() {
+		byte[] data = new byte[100003];
+		new Random(1).nextBytes(data);
+		XXHash64 h = new XXHash64();
+		Random r = new Random(2);
+		for (int off = 0; off < data.length; ) {
+			int n = Math.min(data.length - off, r.nextInt(70));
+			h.update(data, off, n);
+			off += n;
+		}
+		assertEquals(XXHash64.hash(data), h.digest());
+	}
+}